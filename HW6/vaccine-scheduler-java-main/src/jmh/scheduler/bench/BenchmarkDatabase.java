@@ -0,0 +1,213 @@
+package scheduler.bench;
+
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.db.ConnectionManager;
+import scheduler.storage.Storage;
+import scheduler.storage.StorageManager;
+import scheduler.storage.jdbc.JdbcStorage;
+import scheduler.storage.memory.MemoryStorage;
+import scheduler.util.Util;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates and seeds the database the benchmarks run against.
+ *
+ * The target is taken from the system properties bench.url, bench.user and bench.password and defaults to an
+ * in-memory H2 database in SQL Server mode. With bench.storage=memory the application runs on a MemoryStorage
+ * without a log file instead. Every caregiver is available on every seeded day and every account
+ * has the password PASSWORD.
+ */
+public class BenchmarkDatabase {
+
+    public static final String PASSWORD = "benchmark";
+    public static final String VACCINE = "Pfizer";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    private static final String URL =
+            System.getProperty("bench.url", "jdbc:h2:mem:scheduler;MODE=MSSQLServer;DB_CLOSE_DELAY=-1");
+    private static final String USER = System.getProperty("bench.user", "sa");
+    private static final String PASS = System.getProperty("bench.password", "");
+    private static final boolean MEMORY = System.getProperty("bench.storage", "jdbc").equals("memory");
+
+    private static final String[] DROP = {
+            "DROP TABLE IF EXISTS DoseLeases",
+            "DROP TABLE IF EXISTS Waitlist",
+            "DROP TABLE IF EXISTS CaregiverLoads",
+            "DROP TABLE IF EXISTS Appointments",
+            "DROP TABLE IF EXISTS Availabilities",
+            "DROP TABLE IF EXISTS Vaccines",
+            "DROP TABLE IF EXISTS Patients",
+            "DROP TABLE IF EXISTS Caregivers",
+            "DROP SEQUENCE IF EXISTS AppointmentIDSeq"
+    };
+    // the subset of resources/migrations that H2 understands as well
+    private static final String[] CREATE = {
+            "CREATE TABLE Caregivers (Username varchar(255), Salt BINARY(16), Hash BINARY(16), " +
+                    "HashParams varchar(100), PRIMARY KEY (Username))",
+            "CREATE TABLE Availabilities (Time date, Username varchar(255) REFERENCES Caregivers, " +
+                    "Slot smallint NOT NULL DEFAULT -1, Capacity int NOT NULL DEFAULT 1 CHECK (Capacity >= 0), " +
+                    "PRIMARY KEY (Time, Slot, Username))",
+            "CREATE TABLE Vaccines (Name varchar(255), Doses int, PRIMARY KEY (Name))",
+            "CREATE TABLE Patients (Username varchar(255), Salt BINARY(16), Hash BINARY(16), " +
+                    "HashParams varchar(100), PRIMARY KEY (Username))",
+            "CREATE TABLE Appointments (AppointmentID bigint PRIMARY KEY, Time date, " +
+                    "PatientID varchar(255) REFERENCES Patients(Username), " +
+                    "CaregiverID varchar(255) REFERENCES Caregivers(Username), " +
+                    "Vaccine varchar(255) REFERENCES Vaccines(Name), Slot smallint NOT NULL DEFAULT -1)",
+            "CREATE TABLE DoseLeases (Owner char(36), Vaccine varchar(255) REFERENCES Vaccines(Name), " +
+                    "Remaining int NOT NULL, RenewedAt datetime2 NOT NULL, PRIMARY KEY (Owner, Vaccine))",
+            "CREATE TABLE CaregiverLoads (Time date, Username varchar(255) REFERENCES Caregivers, " +
+                    "Booked int NOT NULL DEFAULT 0, PRIMARY KEY (Time, Username))",
+            "CREATE UNIQUE INDEX UX_Appointments_Patient_Time ON Appointments (PatientID, Time)",
+            "CREATE INDEX IX_Appointments_Caregiver_Time ON Appointments (CaregiverID, Time, AppointmentID)",
+            "CREATE INDEX IX_Availabilities_Username_Time ON Availabilities (Username, Time)",
+            "CREATE SEQUENCE AppointmentIDSeq AS bigint START WITH 1"
+    };
+
+    private final int caregivers;
+    private final int patients;
+    private final int days;
+
+    public BenchmarkDatabase(int caregivers, int patients, int days) {
+        this.caregivers = caregivers;
+        this.patients = patients;
+        this.days = days;
+    }
+
+    public static String caregiver(int i) {
+        return "caregiver" + i;
+    }
+
+    public static String patient(int i) {
+        return "patient" + i;
+    }
+
+    public static Date day(int i) {
+        return Date.valueOf(FIRST_DAY.plusDays(i));
+    }
+
+    public int getCaregivers() {
+        return caregivers;
+    }
+
+    public int getPatients() {
+        return patients;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    // recreates all tables and fills them, then points the application at this database
+    public void create() throws SQLException {
+        if (MEMORY) {
+            createInMemory();
+            return;
+        }
+        StorageManager.shutdown();
+        ConnectionManager.useDatabase(URL, USER, PASS);
+        // the schema is created below, the migrations are T-SQL
+        StorageManager.use(new JdbcStorage(false));
+        try (Connection con = DriverManager.getConnection(URL, USER, PASS)) {
+            try (Statement statement = con.createStatement()) {
+                for (String sql : DROP) {
+                    statement.execute(sql);
+                }
+                for (String sql : CREATE) {
+                    statement.execute(sql);
+                }
+            }
+            // the same salt and hash for everybody, hashing 10k passwords would dominate the setup time
+            byte[] salt = Util.generateSalt();
+            HashParams params = HashParams.current();
+            byte[] hash = params.hash(PASSWORD, salt);
+            insertUsers(con, "Caregivers", caregivers, "caregiver", salt, hash, params);
+            insertUsers(con, "Patients", patients, "patient", salt, hash, params);
+        }
+        resetBookings();
+    }
+
+    // puts every availability and dose back and removes all appointments
+    public void resetBookings() throws SQLException {
+        if (MEMORY) {
+            // starting over is cheaper than undoing the bookings one by one
+            createInMemory();
+            return;
+        }
+        try (Connection con = DriverManager.getConnection(URL, USER, PASS)) {
+            con.setAutoCommit(false);
+            try (Statement statement = con.createStatement()) {
+                statement.execute("DELETE FROM DoseLeases");
+                statement.execute("DELETE FROM CaregiverLoads");
+                statement.execute("DELETE FROM Appointments");
+                statement.execute("DELETE FROM Availabilities");
+                statement.execute("DELETE FROM Vaccines");
+            }
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)")) {
+                statement.setString(1, VACCINE);
+                statement.setInt(2, Integer.MAX_VALUE);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = con.prepareStatement("INSERT INTO Availabilities (Time, Username) VALUES (?, ?)")) {
+                for (int d = 0; d < days; d++) {
+                    for (int c = 0; c < caregivers; c++) {
+                        statement.setDate(1, day(d));
+                        statement.setString(2, caregiver(c));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            con.commit();
+        }
+        AvailabilityIndex.getInstance().clear();
+    }
+
+    private void createInMemory() throws SQLException {
+        StorageManager.use(MemoryStorage.open(null, false));
+        Storage storage = StorageManager.get();
+        byte[] salt = Util.generateSalt();
+        HashParams params = HashParams.current();
+        CredentialVerifier.Credentials credentials =
+                new CredentialVerifier.Credentials(salt, params.hash(PASSWORD, salt), params);
+        for (int i = 0; i < caregivers; i++) {
+            storage.caregivers().insert(caregiver(i), credentials);
+        }
+        for (int i = 0; i < patients; i++) {
+            storage.patients().insert(patient(i), credentials);
+        }
+        storage.vaccines().insert(VACCINE, Integer.MAX_VALUE);
+        List<Date> dates = new ArrayList<>(days);
+        for (int d = 0; d < days; d++) {
+            dates.add(day(d));
+        }
+        for (int c = 0; c < caregivers; c++) {
+            storage.availabilities().addAll(caregiver(c), dates);
+        }
+        AvailabilityIndex.getInstance().clear();
+    }
+
+    private static void insertUsers(Connection con, String table, int count, String prefix, byte[] salt,
+                                    byte[] hash, HashParams params) throws SQLException {
+        String sql = "INSERT INTO " + table + " (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                statement.setString(1, prefix + i);
+                statement.setBytes(2, salt);
+                statement.setBytes(3, hash);
+                statement.setString(4, params.toString());
+                statement.addBatch();
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+}
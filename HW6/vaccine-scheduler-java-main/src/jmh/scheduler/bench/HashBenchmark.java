@@ -0,0 +1,36 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.*;
+import scheduler.auth.HashParams;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one password hash, with the original settings and with the configured HashParams.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    private byte[] salt;
+
+    @Setup
+    public void setUp() {
+        salt = Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(BenchmarkDatabase.PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] generateHashCurrentParams() {
+        return HashParams.current().hash(BenchmarkDatabase.PASSWORD, salt);
+    }
+}
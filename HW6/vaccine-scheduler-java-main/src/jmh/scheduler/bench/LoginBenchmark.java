@@ -0,0 +1,64 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.*;
+import scheduler.auth.CredentialVerifier;
+import scheduler.storage.StorageManager;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CaregiverGetter.get and PatientGetter.get, both for a user whose login is not cached (a database round trip
+ * plus the KDF) and for one who logged in moments ago.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private BenchmarkDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(users, users, 1);
+        database.create();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StorageManager.shutdown();
+    }
+
+    @Benchmark
+    public Caregiver caregiverLoginUncached() throws SQLException {
+        String username = BenchmarkDatabase.caregiver(ThreadLocalRandom.current().nextInt(users));
+        CredentialVerifier.CAREGIVERS.invalidate(username);
+        return new Caregiver.CaregiverGetter(username, BenchmarkDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public Caregiver caregiverLoginCached() throws SQLException {
+        return new Caregiver.CaregiverGetter(BenchmarkDatabase.caregiver(0), BenchmarkDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public Patient patientLoginUncached() throws SQLException {
+        String username = BenchmarkDatabase.patient(ThreadLocalRandom.current().nextInt(users));
+        CredentialVerifier.PATIENTS.invalidate(username);
+        return new Patient.PatientGetter(username, BenchmarkDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public Patient patientLoginCached() throws SQLException {
+        return new Patient.PatientGetter(BenchmarkDatabase.patient(0), BenchmarkDatabase.PASSWORD).get();
+    }
+}
@@ -0,0 +1,73 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.*;
+import scheduler.storage.StorageManager;
+import scheduler.model.Reservation;
+import scheduler.model.Vaccine;
+import scheduler.service.ReservationService;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The write paths: reserve and Vaccine.decreaseAvailableDoses.
+ *
+ * The reservation transaction uses T-SQL (OUTPUT, READPAST, sp_sequence_get_range) that H2 does not accept, so
+ * reserve has to run with bench.url pointing at a SQL Server instance, e.g. a local container, or with
+ * bench.storage=memory. Bookings are reset
+ * before every iteration; once all slots of an iteration are taken reserve measures the NO_CAREGIVER path, so
+ * size caregivers * days to cover the iteration time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReservationBenchmark {
+
+    @Param({"100"})
+    public int caregivers;
+
+    @Param({"1000"})
+    public int patients;
+
+    @Param({"30"})
+    public int days;
+
+    private final ReservationService reservations = new ReservationService();
+    private final AtomicLong next = new AtomicLong();
+    private BenchmarkDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(caregivers, patients, days);
+        database.create();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetBookings() throws SQLException {
+        database.resetBookings();
+        next.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StorageManager.shutdown();
+    }
+
+    @Benchmark
+    public Reservation reserve() throws SQLException {
+        // walk through (patient, day) pairs so no patient books the same day twice
+        long n = next.getAndIncrement();
+        String patient = BenchmarkDatabase.patient((int) (n % patients));
+        int day = (int) (n / patients % days);
+        return reservations.reserve(patient, BenchmarkDatabase.day(day), null, BenchmarkDatabase.VACCINE);
+    }
+
+    @Benchmark
+    public void decreaseAvailableDoses() throws SQLException {
+        new Vaccine.VaccineGetter(BenchmarkDatabase.VACCINE).get().decreaseAvailableDoses(1);
+    }
+}
@@ -0,0 +1,59 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.storage.StorageManager;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups behind search_caregiver_schedule, served from the availability index and loaded from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"10", "1000"})
+    public int caregivers;
+
+    @Param({"30", "365"})
+    public int days;
+
+    private BenchmarkDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase(caregivers, 1, days);
+        database.create();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StorageManager.shutdown();
+    }
+
+    @Benchmark
+    public void searchIndexed(Blackhole blackhole) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        Date d = BenchmarkDatabase.day(ThreadLocalRandom.current().nextInt(days));
+        blackhole.consume(index.getCaregivers(d));
+        blackhole.consume(index.getDoses());
+    }
+
+    @Benchmark
+    public void searchFromDatabase(Blackhole blackhole) throws SQLException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.clear();
+        Date d = BenchmarkDatabase.day(ThreadLocalRandom.current().nextInt(days));
+        blackhole.consume(index.getCaregivers(d));
+        blackhole.consume(index.getDoses());
+    }
+}
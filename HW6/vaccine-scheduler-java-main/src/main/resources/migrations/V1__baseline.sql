@@ -0,0 +1,75 @@
+-- The original schema. Every statement checks what already exists, so this also records databases that were
+-- created from the old create.sql as being at version 1.
+
+IF OBJECT_ID('Caregivers') IS NULL
+CREATE TABLE Caregivers (
+    Username varchar(255),
+    Salt BINARY(16),
+    Hash BINARY(16),
+    HashParams varchar(100),
+    PRIMARY KEY (Username)
+);
+GO
+
+IF OBJECT_ID('Availabilities') IS NULL
+CREATE TABLE Availabilities (
+    Time date,
+    Username varchar(255) REFERENCES Caregivers,
+    PRIMARY KEY (Time, Username)
+);
+GO
+
+IF OBJECT_ID('Vaccines') IS NULL
+CREATE TABLE Vaccines (
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Name)
+);
+GO
+
+IF OBJECT_ID('Patients') IS NULL
+CREATE TABLE Patients (
+     Username varchar(255),
+     Salt BINARY(16),
+     Hash BINARY(16),
+     HashParams varchar(100),
+     PRIMARY KEY (Username)
+);
+GO
+
+IF OBJECT_ID('Appointments') IS NULL
+CREATE TABLE Appointments (
+    AppointmentID bigint PRIMARY KEY,
+    Time date,
+    PatientID varchar(255) FOREIGN KEY REFERENCES Patients(Username),
+    CaregiverID varchar(255) FOREIGN KEY REFERENCES Caregivers(Username),
+    Vaccine varchar(255) FOREIGN KEY REFERENCES Vaccines(Name)
+);
+GO
+
+-- AppointmentIDs are drawn from this sequence in blocks (see SequenceAllocator).
+-- It starts above the range of the old randomly chosen ids so both can coexist.
+IF NOT EXISTS (SELECT 1 FROM sys.sequences WHERE name = 'AppointmentIDSeq')
+    CREATE SEQUENCE AppointmentIDSeq AS bigint START WITH 10000000 INCREMENT BY 1;
+GO
+
+-- For databases created while AppointmentID was an int.
+IF EXISTS (SELECT 1 FROM sys.columns
+           WHERE object_id = OBJECT_ID('Appointments') AND name = 'AppointmentID'
+             AND system_type_id = TYPE_ID('int'))
+BEGIN
+    DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                           WHERE parent_object_id = OBJECT_ID('Appointments') AND type = 'PK');
+    EXEC('ALTER TABLE Appointments DROP CONSTRAINT ' + QUOTENAME(@pk));
+    ALTER TABLE Appointments ALTER COLUMN AppointmentID bigint NOT NULL;
+    ALTER TABLE Appointments ADD CONSTRAINT PK_Appointments PRIMARY KEY (AppointmentID);
+END;
+GO
+
+-- Key derivation settings of each account as "algorithm:iterations:keyLength" (see HashParams).
+-- NULL means the account was hashed with the original PBKDF2WithHmacSHA1 settings; such accounts are
+-- rehashed with the current settings the next time their owner logs in.
+IF COL_LENGTH('Caregivers', 'HashParams') IS NULL
+    ALTER TABLE Caregivers ADD HashParams varchar(100) NULL;
+IF COL_LENGTH('Patients', 'HashParams') IS NULL
+    ALTER TABLE Patients ADD HashParams varchar(100) NULL;
@@ -0,0 +1,25 @@
+-- Indexes for the queries the scheduler runs, each one a seek instead of a scan.
+-- Databases set up from create.sql may already have the first two indexes.
+
+-- show_appointments for caregivers, dateExists, and upload_availability_range's booked check:
+-- (CaregiverID, Time) seeks; AppointmentID completes the keyset order, the included columns avoid key lookups.
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE object_id = OBJECT_ID('Appointments') AND name = 'IX_Appointments_Caregiver_Time')
+    CREATE INDEX IX_Appointments_Caregiver_Time ON Appointments (CaregiverID, Time, AppointmentID)
+        INCLUDE (PatientID, Vaccine);
+GO
+
+-- A patient can have one appointment per day. The unique index enforces this even for concurrent
+-- reservations, and is the index probe behind reserve's duplicate check and the patient's show_appointments
+-- (the clustered key AppointmentID is part of every index, so the keyset order needs no sort).
+-- Fails if the table already holds such duplicates; remove them by hand first.
+IF EXISTS (SELECT 1 FROM sys.indexes
+           WHERE object_id = OBJECT_ID('Appointments') AND name = 'IX_Appointments_Patient_Time')
+    DROP INDEX IX_Appointments_Patient_Time ON Appointments;
+CREATE UNIQUE INDEX UX_Appointments_Patient_Time ON Appointments (PatientID, Time)
+    INCLUDE (CaregiverID, Vaccine);
+GO
+
+-- The primary key (Time, Username) serves search by date; the per-caregiver lookups of dateExists and
+-- upload_availability_range need the other order.
+CREATE INDEX IX_Availabilities_Username_Time ON Availabilities (Username, Time);
@@ -0,0 +1,29 @@
+-- Time slots with a capacity. An Availabilities row is one slot of a caregiver's date, identified by the minute
+-- of the day it starts at, with the number of patients it can still take; reserve counts Capacity down instead
+-- of deleting the row. Rows from before are the whole day slot (-1) with a capacity of one.
+
+ALTER TABLE Availabilities ADD
+    Slot smallint NOT NULL CONSTRAINT DF_Availabilities_Slot DEFAULT -1,
+    Capacity int NOT NULL CONSTRAINT DF_Availabilities_Capacity DEFAULT 1
+        CONSTRAINT CK_Availabilities_Capacity CHECK (Capacity >= 0);
+GO
+
+ALTER TABLE Appointments ADD Slot smallint NOT NULL CONSTRAINT DF_Appointments_Slot DEFAULT -1;
+GO
+
+-- The primary key moves from (Time, Username) to (Time, Slot, Username), the order reserve hands out places in.
+-- The old key was created without a name, so it is looked up.
+DECLARE @pk sysname = (SELECT name FROM sys.key_constraints
+                       WHERE parent_object_id = OBJECT_ID('Availabilities') AND type = 'PK');
+DECLARE @sql nvarchar(max) = N'ALTER TABLE Availabilities DROP CONSTRAINT ' + QUOTENAME(@pk);
+EXEC (@sql);
+ALTER TABLE Availabilities ADD CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Slot, Username);
+GO
+
+-- Appointments are read with their slot now, keep the indexes of V2 covering.
+CREATE INDEX IX_Appointments_Caregiver_Time ON Appointments (CaregiverID, Time, AppointmentID)
+    INCLUDE (PatientID, Vaccine, Slot) WITH (DROP_EXISTING = ON);
+GO
+
+CREATE UNIQUE INDEX UX_Appointments_Patient_Time ON Appointments (PatientID, Time)
+    INCLUDE (CaregiverID, Vaccine, Slot) WITH (DROP_EXISTING = ON);
@@ -0,0 +1,13 @@
+-- Appointments per caregiver and date, kept up to date by reserve and cancel so that the least_booked caregiver
+-- selection reads one row per candidate instead of counting appointments while it holds its claim.
+
+CREATE TABLE CaregiverLoads (
+    Time date NOT NULL,
+    Username varchar(255) NOT NULL REFERENCES Caregivers,
+    Booked int NOT NULL CONSTRAINT DF_CaregiverLoads_Booked DEFAULT 0,
+    CONSTRAINT PK_CaregiverLoads PRIMARY KEY (Time, Username)
+);
+GO
+
+INSERT INTO CaregiverLoads (Time, Username, Booked)
+SELECT Time, CaregiverID, COUNT(*) FROM Appointments GROUP BY Time, CaregiverID;
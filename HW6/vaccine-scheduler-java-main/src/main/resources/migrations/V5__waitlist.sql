@@ -0,0 +1,24 @@
+-- Patients waiting for a place on a date. The allocator fills WAITING entries in WaitlistID order and records the
+-- outcome in Status (and the booking in AppointmentID); show_appointments deletes outcomes once shown.
+
+CREATE TABLE Waitlist (
+    WaitlistID bigint IDENTITY(1, 1) CONSTRAINT PK_Waitlist PRIMARY KEY,
+    Time date NOT NULL,
+    PatientID varchar(255) NOT NULL REFERENCES Patients(Username),
+    Vaccine varchar(255) NOT NULL,
+    Status varchar(20) NOT NULL CONSTRAINT DF_Waitlist_Status DEFAULT 'WAITING',
+    AppointmentID bigint NULL
+);
+GO
+
+-- The allocator's queue: only the waiting entries, in FIFO order.
+CREATE INDEX IX_Waitlist_Waiting ON Waitlist (WaitlistID) INCLUDE (Time, PatientID, Vaccine)
+    WHERE Status = 'WAITING';
+GO
+
+-- One waiting entry per patient and date, also for concurrent waitlist commands.
+CREATE UNIQUE INDEX UX_Waitlist_Patient_Time ON Waitlist (PatientID, Time) WHERE Status = 'WAITING';
+GO
+
+-- show_appointments reads and acknowledges a patient's entries.
+CREATE INDEX IX_Waitlist_Patient ON Waitlist (PatientID, WaitlistID);
@@ -0,0 +1,11 @@
+-- Doses leased from Vaccines by scheduler processes running with DoseLedger=1, one row per process and vaccine.
+-- Remaining is what the process has not reported as used yet; leases not renewed for DoseLeaseTimeoutSeconds are
+-- given back to Vaccines by the other processes.
+
+CREATE TABLE DoseLeases (
+    Owner char(36) NOT NULL,
+    Vaccine varchar(255) NOT NULL REFERENCES Vaccines(Name),
+    Remaining int NOT NULL,
+    RenewedAt datetime2 NOT NULL,
+    CONSTRAINT PK_DoseLeases PRIMARY KEY (Owner, Vaccine)
+);
@@ -0,0 +1,10 @@
+-- One row per dose a reservation took from a lease, written in the reservation's transaction. The ledger moves them
+-- into DoseLeases.Remaining in batches; a lease given back before that subtracts the rows still here, so a process
+-- that dies between two batches never has its booked doses returned to Vaccines.
+
+CREATE TABLE DoseUses (
+    Owner char(36) NOT NULL,
+    Vaccine varchar(255) NOT NULL,
+    AppointmentID bigint NOT NULL,
+    CONSTRAINT PK_DoseUses PRIMARY KEY (Owner, Vaccine, AppointmentID)
+);
@@ -0,0 +1,77 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The commands a session understands, looked up by name, with the number of arguments each takes and the usage
+ * line shown in the help text.
+ */
+class CommandRegistry {
+
+    interface Handler {
+        int run(Scheduler session, String[] tokens);
+    }
+
+    static class Command {
+        private final String name;
+        private final String arguments;
+        private final int minArguments;
+        private final int maxArguments;
+        private final Handler handler;
+
+        private Command(String name, String arguments, int minArguments, int maxArguments, Handler handler) {
+            this.name = name;
+            this.arguments = arguments;
+            this.minArguments = minArguments;
+            this.maxArguments = maxArguments;
+            this.handler = handler;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getUsage() {
+            return arguments.isEmpty() ? name : name + " " + arguments;
+        }
+
+        // tokens includes the command name
+        boolean acceptsArguments(String[] tokens) {
+            int count = tokens.length - 1;
+            return count >= minArguments && count <= maxArguments;
+        }
+
+        int run(Scheduler session, String[] tokens) {
+            return handler.run(session, tokens);
+        }
+    }
+
+    private final Map<String, Command> commands = new HashMap<>();
+    // registration order, which is the order of the help text
+    private final List<Command> ordered = new ArrayList<>();
+
+    void register(String name, String arguments, int minArguments, int maxArguments, Handler handler) {
+        Command command = new Command(name, arguments, minArguments, maxArguments, handler);
+        if (commands.put(name, command) != null) {
+            throw new IllegalArgumentException("Command " + name + " is registered twice");
+        }
+        ordered.add(command);
+    }
+
+    void register(String name, String arguments, int argumentCount, Handler handler) {
+        register(name, arguments, argumentCount, argumentCount, handler);
+    }
+
+    // null if there is no such command
+    Command get(String name) {
+        return commands.get(name);
+    }
+
+    Collection<Command> getCommands() {
+        return ordered;
+    }
+}
@@ -1,35 +1,177 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.auth.HashParams;
+import scheduler.auth.SessionTokens;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
+import scheduler.model.DayCapacity;
 import scheduler.model.Patient;
+import scheduler.model.Reservation;
+import scheduler.model.Slot;
 import scheduler.model.Vaccine;
+import scheduler.model.WaitlistEntry;
+import scheduler.service.AppointmentExporter;
+import scheduler.service.CancellationService;
+import scheduler.service.DoseImporter;
+import scheduler.service.ReservationService;
+import scheduler.service.UserImporter;
+import scheduler.service.WaitlistAllocator;
+import scheduler.storage.AppointmentDao;
+import scheduler.storage.AppointmentQuery;
+import scheduler.storage.Storage;
+import scheduler.storage.StorageManager;
+import scheduler.storage.WaitlistDao;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
-import java.util.Random;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
+    // objects to keep track of the currently logged-in user of this session
     // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
     //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    // the session token issued to or presented by the logged-in user, revoked by logout; null after create_*
+    private SessionTokens.Session currentSession = null;
+    // where the output of this session's commands goes
+    private final PrintStream out;
 
+    private static final ReservationService reservationService = new ReservationService();
+    private static final CancellationService cancellationService = new CancellationService();
+
+    // status codes of a command, reported per command in script mode
+    static final int OK = 0;
+    // bad arguments, or a command the current user is not allowed to run
+    static final int INVALID = 1;
+    // a valid command that could not be carried out, e.g. no caregiver available
+    static final int FAILED = 2;
+    // the database or a file could not be accessed
+    static final int ERROR = 3;
+
+    // upper bound for upload_availability_range, mostly to catch typos in the year
+    private static final int MAX_UPLOAD_RANGE_DAYS = 366;
+
+    // appointments show_appointments prints unless --limit says otherwise, and the largest page it allows
+    private static final int SHOW_APPOINTMENTS_PAGE_SIZE = Util.intEnv("ShowAppointmentsPageSize", 100);
+    private static final int MAX_SHOW_APPOINTMENTS_PAGE_SIZE = 10000;
+
+    // every command except quit, which the caller of execute handles; the order is the order of the help text
+    private static final CommandRegistry COMMANDS = new CommandRegistry();
+    static {
+        COMMANDS.register("create_patient", "<username> <password>", 2, Scheduler::createPatient);
+        COMMANDS.register("create_caregiver", "<username> <password>", 2, Scheduler::createCaregiver);
+        COMMANDS.register("login_patient", "<username> <password>", 2, Scheduler::loginPatient);
+        COMMANDS.register("login_caregiver", "<username> <password>", 2, Scheduler::loginCaregiver);
+        COMMANDS.register("resume", "<session_token>", 1, Scheduler::resume);
+        COMMANDS.register("search_caregiver_schedule", "<date>", 1, Scheduler::searchCaregiverSchedule);
+        COMMANDS.register("reserve", "<date> <vaccine> [HH:MM]", 2, 3, Scheduler::reserve);
+        COMMANDS.register("waitlist", "<date> <vaccine>", 2, Scheduler::waitlist);
+        COMMANDS.register("upload_availability", "<date>", 1, Scheduler::uploadAvailability);
+        COMMANDS.register("upload_slots", "<date> <HH:MM-HH:MM> [capacity]", 2, 3, Scheduler::uploadSlots);
+        COMMANDS.register("upload_availability_range", "<start_date> <end_date> [weekdays, e.g. mon,wed,fri]",
+                2, 3, Scheduler::uploadAvailabilityRange);
+        COMMANDS.register("cancel", "<appointment_id>", 1, Scheduler::cancel);
+        COMMANDS.register("cancel_day", "<date>", 1, Scheduler::cancelDay);
+        COMMANDS.register("add_doses", "<vaccine> <number>", 2, Scheduler::addDoses);
+        COMMANDS.register("import_doses", "<file.csv>", 1, Scheduler::importDoses);
+        COMMANDS.register("import_users", "<file.csv>", 1, Scheduler::importUsers);
+        COMMANDS.register("export_appointments", "<from> <to> <file.csv|file.cols>", 3, Scheduler::exportAppointments);
+        COMMANDS.register("show_appointments", "[from] [to] [--limit N] [--after <appointment_id>]", 0, 6,
+                Scheduler::showAppointments);
+        COMMANDS.register("capacity_report", "<from> <to>", 2, Scheduler::capacityReport);
+        COMMANDS.register("stats", "", 0, Scheduler::stats);
+        COMMANDS.register("logout", "", 0, Scheduler::logout);
+    }
+
+    public Scheduler(PrintStream out) {
+        this.out = out;
+    }
 
     public static void main(String[] args) {
-        String operation="";
-        //greeting texts
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
+        // opening the storage also brings the database schema up to date
+        try {
+            StorageManager.get();
+        } catch (RuntimeException e) {
+            System.out.println("Error occurred when opening the storage: " + e.getMessage());
+            System.exit(ERROR);
+        }
+        // a bad SessionTokenKey fails here rather than at the first login
+        try {
+            SessionTokens.getInstance();
+        } catch (IllegalStateException e) {
+            System.out.println("Error occurred when reading the session token key: " + e.getMessage());
+            System.exit(INVALID);
+        }
+        // a bad SlotMinutes as well, rather than at the first upload
+        try {
+            Slot.lengthMinutes();
+        } catch (IllegalStateException e) {
+            System.out.println("Error occurred when reading the slot length: " + e.getMessage());
+            System.exit(INVALID);
+        }
+        String metricsFile = Util.stringEnv("MetricsFile", "none");
+        if (!metricsFile.equals("none")) {
+            try {
+                Metrics.startDump(Paths.get(metricsFile), Util.intEnv("MetricsIntervalSeconds", 60));
+            } catch (InvalidPathException e) {
+                System.out.println("Could not write " + metricsFile + ": " + e.getMessage());
+                System.exit(INVALID);
+            }
+        }
+        Scheduler scheduler = new Scheduler(System.out);
+        // script mode: scheduler.Scheduler --script <file>, or --script - to read the commands from stdin
+        if (args.length == 2 && args[0].equals("--script")) {
+            int exitCode;
+            try (BufferedReader r = args[1].equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in))
+                    : Files.newBufferedReader(Paths.get(args[1]))) {
+                exitCode = new ScriptRunner(scheduler::execute).run(r);
+            } catch (IOException | InvalidPathException e) {
+                System.out.println("Could not read " + args[1] + ": " + e.getMessage());
+                exitCode = ERROR;
+            }
+            WaitlistAllocator.getInstance().stop();
+            Metrics.stopDump();
+            StorageManager.shutdown();
+            System.exit(exitCode);
+        } else if ((args.length == 1 || args.length == 2) && args[0].equals("--server")) {
+            // server mode: scheduler.Scheduler --server [port], one session per connection
+            runServer(args.length == 2 ? args[1] : null);
+            return;
+        } else if (args.length != 0) {
+            System.out.println("Usage: scheduler.Scheduler [--script <file> | --script - | --server [port]]");
+            System.exit(INVALID);
+        }
+
+        scheduler.welcome();
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            greetings(); //print greetings
+            scheduler.greetings(); //print greetings
             System.out.print("> ");
             String response = "";
             try {
@@ -37,236 +179,219 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
+            // end of input behaves like quit
+            if (response == null) {
+                response = "quit";
+            }
+            // split the user input at whitespace
+            String[] tokens = Util.tokenize(response);
+            // blank lines just show the prompt again
             if (tokens.length == 0) {
-                System.out.println("Please try again!");
                 continue;
             }
-            // determine which operation to perform
-            operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments();
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
+            if (tokens[0].equals("quit")) {
+                WaitlistAllocator.getInstance().stop();
+                Metrics.stopDump();
+                StorageManager.shutdown();
                 System.out.println("Bye!");
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
+            scheduler.execute(tokens);
         }
     }
-    // greeting texts
-    private static void greetings(){
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
-    }
-
-    private static void createPatient(String[] tokens) {
-        // create_patient <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
+
+    private static void runServer(String portArgument) {
+        int port = Util.intEnv("ServerPort", 9000);
+        InetAddress address;
+        try {
+            if (portArgument != null) {
+                port = Integer.parseInt(portArgument);
+            }
+            address = InetAddress.getByName(Util.stringEnv("ServerAddress", "127.0.0.1"));
+        } catch (NumberFormatException | UnknownHostException e) {
             System.out.println("Please try again!");
+            System.exit(INVALID);
             return;
         }
-        if(currentCaregiver!=null || currentPatient!=null){
-            System.out.println("Already logged in");
+        SchedulerServer server;
+        try {
+            server = new SchedulerServer(address, port, Util.intEnv("ServerMaxSessions", 10000),
+                    Util.intEnv("ServerIdleTimeoutSeconds", 900) * 1000);
+        } catch (IOException e) {
+            System.out.println("Error occurred when starting the server: " + e.getMessage());
+            System.exit(ERROR);
             return;
         }
+        // closed by the hook only: Ctrl-C stops accepting connections and closes the storage cleanly
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            WaitlistAllocator.getInstance().stop();
+            Metrics.stopDump();
+            StorageManager.shutdown();
+        }));
+        System.out.println("Listening on " + address.getHostAddress() + ":" + server.getPort());
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Error occurred when serving: " + e.getMessage());
+            System.exit(ERROR);
+        }
+    }
+
+    // runs a single command of this session and returns its status code
+    int execute(String[] tokens) {
+        // determine which operation to perform
+        CommandRegistry.Command command = COMMANDS.get(tokens[0]);
+        if (command == null) {
+            out.println("Invalid operation name!");
+            return INVALID;
+        }
+        if (!command.acceptsArguments(tokens)) {
+            out.println("Please try again!");
+            return INVALID;
+        }
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = command.run(this, tokens);
+        } catch (RuntimeException e) {
+            // a bug in one command must not end the script or the session it runs in
+            out.println("Error occurred when running " + command.getName());
+            e.printStackTrace();
+            status = ERROR;
+        }
+        String timer = "command." + command.getName();
+        Metrics.record(timer, System.nanoTime() - start);
+        if (status == ERROR) {
+            Metrics.error(timer);
+        }
+        return status;
+    }
+
+    void welcome() {
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+    }
+
+    // greeting texts
+    void greetings(){
+        for (CommandRegistry.Command command : COMMANDS.getCommands()) {
+            out.println("> " + command.getUsage());
+        }
+        out.println("> quit");
+        out.println();
+    }
+
+    private int createPatient(String[] tokens) {
+        // create_patient <username> <password>
+        if(currentCaregiver!=null || currentPatient!=null){
+            out.println("Already logged in");
+            return INVALID;
+        }
 
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
-            return;
+            out.println("Username taken, try again!");
+            return FAILED;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        HashParams hashParams = HashParams.current();
+        byte[] hash = hashParams.hash(password, salt);
         // create the patient
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
+            currentPatient = new Patient.PatientBuilder(username, salt, hash, hashParams).build();
             // save to caregiver information to our database
             currentPatient.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
+            out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
+            out.println("Create failed");
             e.printStackTrace();
+            return ERROR;
         }
         //do we need to set currentPatient to null?
+        return OK;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private int createCaregiver(String[] tokens) {
         // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
-        }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
-            return;
+            out.println("Username taken, try again!");
+            return FAILED;
         }
         if(currentCaregiver!=null || currentPatient!=null){
-            System.out.println("Already logged in");
-            return;
+            out.println("Already logged in");
+            return INVALID;
         }
 
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        HashParams hashParams = HashParams.current();
+        byte[] hash = hashParams.hash(password, salt);
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash, hashParams).build();
             // save to caregiver information to our database
             currentCaregiver.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
+            out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
+            out.println("Create failed");
             e.printStackTrace();
+            return ERROR;
         }
         //do we need to set currentCaregiver to null?
+        return OK;
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private boolean usernameExistsPatient(String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.get().patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private boolean usernameExistsCaregiver(String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return StorageManager.get().caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static boolean dateExists(Date d, Caregiver c){
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectDate= "SELECT * FROM Appointments WHERE Time = ? AND CaregiverID = ?";
+    private boolean dateExists(Date d, Caregiver c){
+        Storage storage = StorageManager.get();
         try {
-            PreparedStatement statement = con.prepareStatement(selectDate);
-            statement.setDate(1, d);
-            statement.setString(2, c.getUsername());
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            if(resultSet.isBeforeFirst()){
-            return resultSet.isBeforeFirst();
+            if (storage.appointments().existsForCaregiver(d, c.getUsername())) {
+                return true;
             }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking date in appointments");
+            out.println("Error occurred when checking date in appointments");
             e.printStackTrace();
+            return true;
         }
-        selectDate= "SELECT * FROM Availabilities WHERE Time = ? AND Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectDate);
-            statement.setDate(1, d);
-            statement.setString(2, c.getUsername());
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return storage.availabilities().exists(d, c.getUsername());
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking date in availabilities");
+            out.println("Error occurred when checking date in availabilities");
             e.printStackTrace();
         }
-
-        finally {
-            cm.closeConnection();
-        }
         return true;
     }
 
-    private static boolean AppointmentIDExists(int ID) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String selectID = "SELECT * FROM Appointments WHERE AppointmentID = ?";
-        try {
-            PreparedStatement statement = con.prepareStatement(selectID);
-            statement.setInt(1, ID);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when checking AppointmentID");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
-        }
-        return true;
-    }
-
-    private static void loginPatient(String[] tokens) {
+    private int loginPatient(String[] tokens) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentPatient != null || currentCaregiver != null) {
-            System.out.println("Already logged-in!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Already logged-in!");
+            return INVALID;
         }
         String username = tokens[1];
         String password = tokens[2];
@@ -275,29 +400,27 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
+            out.println("Error occurred when logging in");
             e.printStackTrace();
+            return ERROR;
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Please try again!");
-        } else {
-            System.out.println("Patient logged in as: " + username);
-            currentPatient = patient;
+            out.println("Please try again!");
+            return FAILED;
         }
+        out.println("Patient logged in as: " + username);
+        currentPatient = patient;
+        startSession(SessionTokens.Role.PATIENT, username);
+        return OK;
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private int loginCaregiver(String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Already logged-in!");
+            return INVALID;
         }
         String username = tokens[1];
         String password = tokens[2];
@@ -306,29 +429,58 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
+            out.println("Error occurred when logging in");
             e.printStackTrace();
+            return ERROR;
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
+            return FAILED;
+        }
+        out.println("Caregiver logged in as: " + username);
+        currentCaregiver = caregiver;
+        startSession(SessionTokens.Role.CAREGIVER, username);
+        return OK;
+    }
+
+    private void startSession(SessionTokens.Role role, String username) {
+        currentSession = SessionTokens.getInstance().issue(role, username);
+        out.println("Session token (valid until " + Instant.ofEpochSecond(currentSession.getExpiresAt()) + "): " +
+                currentSession.getToken());
+    }
+
+    private int resume(String[] tokens) {
+        // resume <session_token>
+        // check 1: if someone's already logged-in, they need to log out first
+        if (currentPatient != null || currentCaregiver != null) {
+            out.println("Already logged-in!");
+            return INVALID;
+        }
+        // check 2: the token, checked against its HMAC without the database or the password hash
+        SessionTokens.Session session = SessionTokens.getInstance().verify(tokens[1]);
+        if (session == null) {
+            out.println("Session token is invalid, expired or logged out. Please login again!");
+            return FAILED;
+        }
+        // the credentials are not loaded, a session only needs them to create the account
+        if (session.getRole() == SessionTokens.Role.CAREGIVER) {
+            currentCaregiver = new Caregiver.CaregiverBuilder(session.getUsername(), null, null, null).build();
+            out.println("Caregiver logged in as: " + session.getUsername());
         } else {
-            System.out.println("Caregiver logged in as: " + username);
-            currentCaregiver = caregiver;
+            currentPatient = new Patient.PatientBuilder(session.getUsername(), null, null, null).build();
+            out.println("Patient logged in as: " + session.getUsername());
         }
+        currentSession = session;
+        return OK;
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private int searchCaregiverSchedule(String[] tokens) {
         // TODO: Part 2
         // check 1, make sure user has already logged in
         if(currentCaregiver == null & currentPatient==null){
-            System.out.println("Please login first.");
-            return;
-        }
-        // check 2, make sure size of token is correct
-        if (tokens.length!=2) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Please login first.");
+            return INVALID;
         }
         // check 3
         Date d = Date.valueOf("1111-11-11");
@@ -336,76 +488,73 @@ public class Scheduler {
             String date = tokens[1];
             d = Date.valueOf(date);
         } catch(Exception i){
-            System.out.println("Error occurred when processing date");
-            return;
+            out.println("Error occurred when processing date");
+            return INVALID;
         }
 
-        // open connection to database
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        // print out all available caregivers
-        try {
-            System.out.println("Available caregivers:");
-            String selectUsername = "SELECT Username FROM Availabilities WHERE Time = ?";
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-            ResultSetMetaData rsmd = resultSet.getMetaData();
-            int columnsNumber = rsmd.getColumnCount();
-            while (resultSet.next()) {
-                for (int i = 1; i <= columnsNumber; i++) {
-                    if (i > 1) System.out.print(",  ");
-                    String columnValue = resultSet.getString(i);
-                    System.out.print(columnValue);
+        // print out all available caregivers with their free slots, then vaccines and doses left
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        try {
+            out.println("Available caregivers:");
+            List<Slot> slots = index.getSlots(d);
+            for (int i = 0, next; i < slots.size(); i = next) {
+                String caregiver = slots.get(i).getCaregiver();
+                next = i;
+                while (next < slots.size() && slots.get(next).getCaregiver().equals(caregiver)) {
+                    next++;
                 }
-                System.out.println("");
+                out.println(caregiver + formatSlots(slots.subList(i, next)));
             }
-            System.out.println();
+            out.println();
         } catch (SQLException e) {
-            System.out.println("Error occurred when finding available caregivers");
+            out.println("Error occurred when finding available caregivers");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return ERROR;
         }
-
-        con = cm.createConnection();
-        // print out vaccines and doses left
         try {
-            System.out.println("Available vaccines:");
-            String getDoses = "SELECT * FROM Vaccines";
-            PreparedStatement statement = con.prepareStatement(getDoses);
-            ResultSet resultSet = statement.executeQuery();
-
-            ResultSetMetaData rsmd = resultSet.getMetaData();
-            int columnsNumber = rsmd.getColumnCount();
-            while (resultSet.next()) {
-                for (int i = 1; i <= columnsNumber; i++) {
-                    if (i > 1) System.out.print(",  ");
-                    String columnValue = resultSet.getString(i);
-                    System.out.print(columnValue);
-                }
-                System.out.println("");
+            out.println("Available vaccines:");
+            for (Map.Entry<String, Integer> vaccine : index.getDoses().entrySet()) {
+                out.println(vaccine.getKey() + ",  " + vaccine.getValue());
             }
-            System.out.println();
+            out.println();
         } catch (SQLException e) {
-            System.out.println("Error occurred when finding available vaccines");
+            out.println("Error occurred when finding available vaccines");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return ERROR;
+        }
+        return OK;
+    }
+
+    // ":  09:00-10:30 (2 places), 14:00-15:00 (1 place)" for the slots of one caregiver, in order of their start;
+    // back to back slots with the same free places are printed as one range, whole day availabilities as nothing
+    private static String formatSlots(List<Slot> slots) {
+        int length = Slot.lengthMinutes();
+        StringBuilder ranges = new StringBuilder();
+        for (int i = 0, next; i < slots.size(); i = next) {
+            Slot first = slots.get(i);
+            next = i + 1;
+            if (first.getStart() == Slot.WHOLE_DAY) {
+                continue;
+            }
+            int end = first.getStart() + length;
+            while (next < slots.size() && slots.get(next).getStart() == end
+                    && slots.get(next).getCapacity() == first.getCapacity()) {
+                end += length;
+                next++;
+            }
+            ranges.append(ranges.length() == 0 ? ":  " : ", ").append(Slot.formatStart(first.getStart()))
+                    .append('-').append(Slot.formatStart(end)).append(" (").append(first.getCapacity())
+                    .append(first.getCapacity() == 1 ? " place)" : " places)");
         }
+        return ranges.toString();
     }
 
-    private static void reserve(String[] tokens) {
+    private int reserve(String[] tokens) {
         // TODO: Part 2
         // check 1, make sure patient is logged in
         if (currentPatient == null){
-            System.out.println("Please login as a patient first!");
-            return;
-        }
-        // check 2, make sure size of token is correct
-        if (tokens.length!=3) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Please login as a patient first!");
+            return INVALID;
         }
 
         Date d = Date.valueOf("1111-11-11");
@@ -413,351 +562,376 @@ public class Scheduler {
             String date = tokens[1];
             d = Date.valueOf(date);
         }catch(IllegalArgumentException i){
-            System.out.println("Error occurred when processing date");
-            return;
+            out.println("Error occurred when processing date");
+            return INVALID;
         }
 
-        // open connection to database
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String caregiver="";
-        //TODO make sure patient does not have a appointment already on this date
-
-        try {
-            String selectDate = "SELECT * FROM Appointments WHERE Time = ? AND PatientID = ?";
-            PreparedStatement statement = con.prepareStatement(selectDate);
-            statement.setDate(1, d);
-            statement.setString(2,currentPatient.getUsername());
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.isBeforeFirst()){
-                System.out.println("You already have an appointment on this date");
-                return;
+        String v = tokens[2];
+        // without a time, the earliest free slot of the date
+        Integer slot = null;
+        if (tokens.length == 4) {
+            try {
+                slot = Slot.parseStart(tokens[3]);
+            } catch (IllegalArgumentException e) {
+                out.println("Please enter the time as HH:MM!");
+                return INVALID;
             }
-        } catch (SQLException e) {
-            System.out.println("Error occurred when finding available caregivers");
-            e.printStackTrace();
-            return;
-        } finally {
-            cm.closeConnection();
         }
-
-        con = cm.createConnection();
-        // Assign caregiver to patient
+        Reservation reservation;
         try {
-            String selectUsername = "SELECT Username FROM Availabilities WHERE Time = ?";
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-            // check to see if there are caregivers available on that date
-            if(!resultSet.isBeforeFirst()){
-                System.out.println("There are no available caregivers on this day. Pick a different date please.");
-                return;
-            }
-            if(resultSet.next()){
-            caregiver=resultSet.getString(1);
-            }else{
-                return;
-            }
+            reservation = reservationService.reserve(currentPatient.getUsername(), d, slot, v);
         } catch (SQLException e) {
-            System.out.println("Error occurred when finding available caregivers");
+            out.println("Error occurred when reserving appointment");
             e.printStackTrace();
-            return;
-        } finally {
-            cm.closeConnection();
+            return ERROR;
+        }
+        switch (reservation.getStatus()) {
+            case ALREADY_BOOKED:
+                out.println("You already have an appointment on this date");
+                return FAILED;
+            case NO_CAREGIVER:
+                out.println(slot == null
+                        ? "There are no available caregivers on this day. Pick a different date please."
+                        : "There are no available caregivers at this time. Pick a different time please.");
+                out.println("Or use waitlist " + d + " " + v + " to be booked as soon as a place frees up.");
+                return FAILED;
+            case NO_SUCH_VACCINE:
+                out.println("Vaccine does not exist");
+                return FAILED;
+            case OUT_OF_DOSES:
+                out.println("Vaccine is out of doses");
+                out.println("Or use waitlist " + d + " " + v + " to be booked as soon as doses arrive.");
+                return FAILED;
+            default:
+                out.println(reservation.getSlot() == Slot.WHOLE_DAY ? "Reserved successfully"
+                        : "Reserved successfully at " + Slot.formatStart(reservation.getSlot()));
+                return OK;
         }
+    }
 
-        String v = tokens[2];
-        con = cm.createConnection();
-        //check to see if vaccine still has doses
-        try {
-            String selectDoses = "SELECT Doses FROM Vaccines WHERE Name = ?";
-            PreparedStatement statement = con.prepareStatement(selectDoses);
-            statement.setString(1, v);
-            ResultSet resultSet = statement.executeQuery();
-            if(!resultSet.isBeforeFirst()){
-                System.out.println("Vaccine does not exist");
-                return;
-            }
-            if(resultSet.next()){
-                if(resultSet.getInt(1)<=0){
-                System.out.println("Vaccine is out of doses");
-                return;
-                }
-            }
-        } catch (SQLException e) {
-            System.out.println("Error occurred when finding vaccine dose amount");
-            e.printStackTrace();
-            return;
-        } finally {
-            cm.closeConnection();
+    private int waitlist(String[] tokens) {
+        // waitlist <date> <vaccine>
+        // check 1, make sure patient is logged in
+        if (currentPatient == null) {
+            out.println("Please login as a patient first!");
+            return INVALID;
         }
-        //decrease dose of vaccine accordingly
-        con=cm.createConnection();
+        Date d;
         try {
-            Vaccine vac= new Vaccine.VaccineGetter(v).get();
-            vac.decreaseAvailableDoses(1);
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
         }
-        catch (SQLException e) {
-            System.out.println("Error occurred when updating dosage amount for vaccine.");
-            e.printStackTrace();
-            return;
+        if (d.toLocalDate().isBefore(LocalDate.now())) {
+            out.println("Please pick a date that has not passed!");
+            return INVALID;
         }
-        catch(NullPointerException n){
-            System.out.println("Vaccine does not exist");
-            n.printStackTrace();
-            return;
-        }
-
-        //remove availability of caregiver accordingly
-        String removeAvailability = "DELETE FROM Availabilities WHERE TIME = ? AND USERNAME = ?";
+        String v = tokens[2];
+        String patient = currentPatient.getUsername();
+        WaitlistEntry entry;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, caregiver);
-            statement.executeUpdate();
+            // check 2, a patient has one appointment per day
+            List<Appointment> booked = new ArrayList<>(1);
+            StorageManager.get().appointments().find(new AppointmentQuery.AppointmentQueryBuilder(
+                    AppointmentQuery.Role.PATIENT, patient).from(d).to(d).limit(1).build(), booked::add);
+            if (!booked.isEmpty()) {
+                out.println("You already have an appointment on this date");
+                return FAILED;
+            }
+            if (!AvailabilityIndex.getInstance().getDoses().containsKey(v)) {
+                out.println("Vaccine does not exist");
+                return FAILED;
+            }
+            entry = StorageManager.get().waitlist().add(patient, d, v);
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating availability for caregiver.");
+            out.println("Error occurred when joining the waitlist");
             e.printStackTrace();
-            return;
-        }
-        finally {
-            cm.closeConnection();
-        }
-
-        // All checks passed, can now create new appointment
-        con = cm.createConnection();
-        String addAppointment = "INSERT INTO Appointments VALUES (? , ? , ? , ? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAppointment);
-            int AppointmentID = 0;
-            Random rand=new Random();
-            do{
-            AppointmentID = rand.nextInt(9999999);}
-            while(AppointmentIDExists(AppointmentID));
-
-            String patientID=currentPatient.getUsername();
-            statement.setInt(1, AppointmentID);
-            statement.setDate(2, d);
-            statement.setString(3, patientID);
-            statement.setString(4, caregiver);
-            statement.setString(5, v);
-            statement.executeUpdate();
-            System.out.println("Reserved successfully");
+            return ERROR;
         }
-        catch (SQLException e) {
-            System.out.println("Error occurred when updating Appointment");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+        if (entry == null) {
+            out.println("You are already on the waitlist for this date");
+            return FAILED;
         }
+        // there may be a place already, e.g. one freed since the patient tried to reserve
+        WaitlistAllocator.getInstance().wake();
+        out.println("Added to the waitlist for " + d + " as request " + entry.getWaitlistID() +
+                ", show_appointments tells you when you are booked");
+        return OK;
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    private int uploadAvailability(String[] tokens) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Please login as a caregiver first!");
+            return INVALID;
         }
         Date d = Date.valueOf("1111-11-11");
         try{
             String date = tokens[1];
             d = Date.valueOf(date);
         }catch(IllegalArgumentException i){
-            System.out.println("Error occurred when processing date");
-            return;
+            out.println("Error occurred when processing date");
+            return INVALID;
         }
 
         if(dateExists(d,currentCaregiver)) {
-            System.out.println("Date has already been uploaded, please pick a different date");
-            return;
+            out.println("Date has already been uploaded, please pick a different date");
+            return FAILED;
         }
         try {
             currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            out.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            out.println("Please enter a valid date!");
+            return INVALID;
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            out.println("Error occurred when uploading availability");
             e.printStackTrace();
+            return ERROR;
         }
+        return OK;
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
-
-        //check 1, make sure length is correct
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
+    private int uploadSlots(String[] tokens) {
+        // upload_slots <date> <HH:MM-HH:MM> [capacity]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
         }
-
-        //check 2, make sure user is logged in
-        String user ="";
-        String removeAppointment = "";
-        int AppointmentID = Integer.parseInt(tokens[1]);
-        String ID="";
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String getPatientID ="SELECT PatientID FROM Appointments WHERE AppointmentID = ?";
-        if (currentCaregiver != null & currentPatient==null){
-            user=currentCaregiver.getUsername();
-            removeAppointment = "DELETE FROM Appointments WHERE AppointmentID = ? AND CaregiverID = ?";
-            try{
-                PreparedStatement statement = con.prepareStatement(getPatientID);
-                statement.setInt(1, AppointmentID);
-                ResultSet resultSet = statement.executeQuery();
-                if (resultSet.next()) {
-                    ID = resultSet.getString(1);
-                }
-            }catch(SQLException e){
-                System.out.println("Error occurred when retrieving vaccine.");
-                e.printStackTrace();
-            }finally{
-                cm.closeConnection();
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
+        }
+        int from;
+        int to;
+        String[] range = tokens[2].split("-");
+        try {
+            if (range.length != 2) {
+                throw new IllegalArgumentException(tokens[2]);
             }
+            from = Slot.parseStart(range[0]);
+            to = Slot.parseStart(range[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter the times as HH:MM-HH:MM!");
+            return INVALID;
         }
-        else if(currentCaregiver == null & currentPatient!=null){
-            user=currentPatient.getUsername();
-            removeAppointment= "DELETE FROM Appointments WHERE AppointmentID = ? AND PatientID = ?";
-            con = cm.createConnection();
-            try{
-                PreparedStatement statement = con.prepareStatement(getPatientID);
-                statement.setInt(1, AppointmentID);
-                ResultSet resultSet = statement.executeQuery();
-                if (resultSet.next()) {
-                    ID = resultSet.getString(1);
-                }
-            }catch(SQLException e){
-                System.out.println("Error occurred when retrieving vaccine.");
-                e.printStackTrace();
-            }finally{
-                cm.closeConnection();
+        int capacity = 1;
+        if (tokens.length == 4) {
+            try {
+                capacity = Integer.parseInt(tokens[3]);
+            } catch (NumberFormatException e) {
+                capacity = 0;
+            }
+            if (capacity < 1 || capacity > Short.MAX_VALUE) {
+                out.println("Please enter a capacity between 1 and " + Short.MAX_VALUE + "!");
+                return INVALID;
             }
         }
-        else{
-            System.out.println("Please login first.");
-            return;
+        // one slot every SlotMinutes that ends by the end of the range
+        int length = Slot.lengthMinutes();
+        List<Integer> starts = new ArrayList<>();
+        for (int start = from; start + length <= to; start += length) {
+            starts.add(start);
         }
-        // check 3, make sure user cannot cancel someone else's appointment
-        if(!user.equals(ID)){
-            System.out.println("You cannot cancel someone else's appointment");
-            return;
+        if (starts.isEmpty()) {
+            out.println("Please enter a range of at least " + length + " minutes!");
+            return INVALID;
         }
-
-        cm = new ConnectionManager();
-        con = cm.createConnection();
-        String vac="";
-        String date="";
-        String caregiver="";
-
-        try{
-            String getVaccine ="SELECT Vaccine FROM Appointments WHERE AppointmentID = ?";
-            String getCaregiver ="SELECT CaregiverID FROM Appointments WHERE AppointmentID = ?";
-            String getDate ="SELECT Time FROM Appointments WHERE AppointmentID = ?";
-
-            PreparedStatement statement = con.prepareStatement(getVaccine);
-            statement.setInt(1, AppointmentID);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                vac = resultSet.getString(1);
+        try {
+            if (!currentCaregiver.uploadSlots(d, starts, capacity)) {
+                out.println("Date has already been uploaded, please pick a different date");
+                return FAILED;
             }
+        } catch (SQLException e) {
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+            return ERROR;
+        }
+        out.println("Availability uploaded for " + starts.size() + " slot(s) of " + length +
+                " minutes, " + capacity + " patient(s) each");
+        return OK;
+    }
 
-            statement = con.prepareStatement(getCaregiver);
-            statement.setInt(1, AppointmentID);
-            resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                caregiver = resultSet.getString(1);
+    private int uploadAvailabilityRange(String[] tokens) {
+        // upload_availability_range <start_date> <end_date> [weekdays]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
+        }
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(tokens[1]);
+            end = LocalDate.parse(tokens[2]);
+        } catch (DateTimeParseException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
+        }
+        if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_UPLOAD_RANGE_DAYS) {
+            out.println("Please enter a range of at most " + MAX_UPLOAD_RANGE_DAYS + " days!");
+            return INVALID;
+        }
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            weekdays = parseWeekdays(tokens[3]);
+            if (weekdays == null) {
+                out.println("Please enter weekdays as a comma separated list such as mon,wed,fri!");
+                return INVALID;
             }
+        }
 
-            statement = con.prepareStatement(getDate);
-            statement.setInt(1, AppointmentID);
-            resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                date = resultSet.getString(1);
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
             }
-
-        } catch (SQLException e) {
-            System.out.println("Error occurred when retrieving vaccine.");
-            e.printStackTrace();
         }
         try {
-            PreparedStatement statement = con.prepareStatement(removeAppointment);
-            statement.setInt(1, AppointmentID);
-            statement.setString(2, user);
-            statement.executeUpdate();
-            System.out.println("Successfully cancelled appointment");
+            int added = currentCaregiver.uploadAvailabilities(dates);
+            out.println("Availability uploaded for " + added + " date(s), " + (dates.size() - added) +
+                    " skipped because they were already uploaded or booked");
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating appointment.");
+            out.println("Error occurred when uploading availability");
             e.printStackTrace();
+            return ERROR;
         }
-        finally {
-            cm.closeConnection();
+        return OK;
+    }
+
+    // parses e.g. "mon,wed,fri"; returns null if any of the names is not a weekday
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            DayOfWeek match = null;
+            String prefix = name.trim().toUpperCase();
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            weekdays.add(match);
         }
-        //TODO need fix, not added back
+        return weekdays;
+    }
 
-        Vaccine vaccine = null;
+    private int cancel(String[] tokens) {
+        long appointmentID = 0;
         try {
-            vaccine = new Vaccine.VaccineGetter(vac).get();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            appointmentID = Long.parseLong(tokens[1]);
+        } catch (NumberFormatException e) {
+            out.println("Please try again!");
+            return INVALID;
         }
+
+        //check 2, make sure user is logged in
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first.");
+            return INVALID;
+        }
+        // check 3, make sure user cannot cancel someone else's appointment: the ownership check is part of the
+        // cancellation, which also gives the dose and the caregiver's slot back
+        Appointment appointment;
         try {
-            vaccine.increaseAvailableDoses(1);
+            appointment = currentCaregiver != null
+                    ? cancellationService.cancel(AppointmentQuery.Role.CAREGIVER, currentCaregiver.getUsername(),
+                            appointmentID)
+                    : cancellationService.cancel(AppointmentQuery.Role.PATIENT, currentPatient.getUsername(),
+                            appointmentID);
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            out.println("Error occurred when cancelling appointment.");
             e.printStackTrace();
+            return ERROR;
         }
+        if (appointment == null) {
+            // looked up only after the cancellation failed, so that a successful one stays a single transaction
+            boolean exists;
+            try {
+                exists = StorageManager.get().appointments().get(appointmentID) != null;
+            } catch (SQLException e) {
+                out.println("Error occurred when cancelling appointment.");
+                e.printStackTrace();
+                return ERROR;
+            }
+            out.println(exists ? "You cannot cancel someone else's appointment" : "No such appointment");
+            return INVALID;
+        }
+        out.println("Successfully cancelled appointment");
+        return OK;
+    }
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        con = cm.createConnection();
+    private int cancelDay(String[] tokens) {
+        // cancel_day <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
+        }
+        Date d;
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setString(1, date);
-            statement.setString(2, caregiver);
-            statement.executeUpdate();
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
+        }
+        List<Appointment> cancelled;
+        try {
+            cancelled = cancellationService.cancelDay(currentCaregiver.getUsername(), d);
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating Availabilities.");
+            out.println("Error occurred when cancelling appointments.");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return ERROR;
+        }
+        if (cancelled.isEmpty()) {
+            out.println("You have no appointments on this date");
+            return FAILED;
         }
+        for (Appointment appointment : cancelled) {
+            out.println("Cancelled appointment " + appointment.getAppointmentID() + " of " +
+                    appointment.getPatientID() + " (" + appointment.getVaccine() + ")");
+        }
+        out.println("Successfully cancelled " + cancelled.size() + " appointment(s)");
+        return OK;
     }
 
-    private static void addDoses(String[] tokens) {
+    private int addDoses(String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
-            return;
-        }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Please try again!");
-            return;
+            out.println("Please login as a caregiver first!");
+            return INVALID;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses = 0;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            out.println("Please try again!");
+            return INVALID;
+        }
         Vaccine vaccine = null;
 
         //check to make sure doses is positive
-        if(doses<0){
-            System.out.println("Doses cannot be negative");
-            return;
+        if(doses<=0){
+            out.println("Doses must be positive");
+            return INVALID;
         }
 
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            out.println("Error occurred when adding doses");
             e.printStackTrace();
+            return ERROR;
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
@@ -766,79 +940,340 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
+                return ERROR;
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
+                return ERROR;
             }
         }
-        System.out.println("Doses updated!");
+        out.println("Doses updated!");
+        return OK;
+    }
+
+    private int importDoses(String[] tokens) {
+        // import_doses <file.csv>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
+        }
+        DoseImporter.Result result;
+        try {
+            result = new DoseImporter().importFile(Paths.get(tokens[1]));
+        } catch (IOException | InvalidPathException e) {
+            out.println("Could not read " + tokens[1] + ": " + e.getMessage());
+            return ERROR;
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return FAILED;
+        } catch (SQLException e) {
+            out.println("Error occurred when adding doses");
+            e.printStackTrace();
+            return ERROR;
+        }
+        out.println("Doses updated! Added " + result.getDoses() + " doses of " + result.getVaccines() +
+                " vaccine(s) from " + result.getLines() + " lines in " + result.getElapsedMillis() + " ms (" +
+                result.getLinesPerSecond() + " lines/s)");
+        if (result.getRejectedCount() > 0) {
+            out.println("Skipped " + result.getRejectedCount() + " invalid line(s), starting with lines " +
+                    result.getRejectedLines());
+        }
+        return OK;
+    }
+
+    private int importUsers(String[] tokens) {
+        // import_users <file.csv>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
+        }
+        UserImporter.Result result;
+        try {
+            result = new UserImporter().importFile(Paths.get(tokens[1]));
+        } catch (IOException | InvalidPathException e) {
+            out.println("Could not read " + tokens[1] + ": " + e.getMessage());
+            return ERROR;
+        } catch (SQLException e) {
+            out.println("Error occurred when creating accounts");
+            e.printStackTrace();
+            return ERROR;
+        }
+        out.println("Accounts created! Created " + result.getCreated() + " account(s) from " + result.getLines() +
+                " lines in " + result.getElapsedMillis() + " ms (" + result.getAccountsPerSecond() + " accounts/s)");
+        if (result.getTaken() > 0) {
+            out.println("Skipped " + result.getTaken() + " taken or repeated username(s)");
+        }
+        if (result.getRejectedCount() > 0) {
+            out.println("Skipped " + result.getRejectedCount() + " invalid line(s), starting with lines " +
+                    result.getRejectedLines());
+        }
+        return OK;
     }
 
-    private static void showAppointments() {
-        String user="";
-        String selectStatement = "";
+    private int exportAppointments(String[] tokens) {
+        // export_appointments <from> <to> <file.csv|file.cols>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
+        }
+        // check 2: the date range
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
+        }
+        if (to.before(from)) {
+            out.println("The end date must not be before the start date!");
+            return INVALID;
+        }
+        AppointmentExporter.Result result;
+        Path file;
+        try {
+            file = AppointmentExporter.resolve(tokens[3]);
+            result = new AppointmentExporter().export(from, to, file);
+        } catch (IOException | InvalidPathException e) {
+            out.println("Could not write " + tokens[3] + ": " + e.getMessage());
+            return ERROR;
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return INVALID;
+        } catch (SQLException e) {
+            out.println("Error occurred when exporting appointments");
+            e.printStackTrace();
+            return ERROR;
+        }
+        out.println("Exported " + result.getRows() + " appointment(s) to " + file + ", " + result.getBytes() +
+                " bytes, in " + result.getElapsedMillis() + " ms (" + result.getRowsPerSecond() + " rows/s)");
+        return OK;
+    }
+
+    private int showAppointments(String[] tokens) {
+        // show_appointments [from] [to] [--limit N] [--after <appointment_id>]
         // check 1, make sure user is logged in
+        AppointmentQuery.Role role;
+        String user;
         if (currentCaregiver != null & currentPatient==null){
-            user=currentCaregiver.getUsername();
-            selectStatement = "SELECT AppointmentID, Vaccine, Time, PatientID FROM Appointments WHERE CaregiverID = ?";
-            System.out.println("AppointmentID  Vaccine  Date  PatientID");
+            role = AppointmentQuery.Role.CAREGIVER;
+            user = currentCaregiver.getUsername();
         }
         else if(currentCaregiver == null & currentPatient!=null){
-            user=currentPatient.getUsername();
-            selectStatement = "SELECT AppointmentID, Vaccine, Time, CaregiverID FROM Appointments WHERE PatientID = ?";
-            System.out.println("AppointmentID  Vaccine  Date  CaregiverID");
+            role = AppointmentQuery.Role.PATIENT;
+            user = currentPatient.getUsername();
         }
         else{
-            System.out.println("Please login first.");
-            return;
+            out.println("Please login first.");
+            return INVALID;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+
+        // check 2, parse the optional date range and paging options
+        AppointmentQuery.AppointmentQueryBuilder query = new AppointmentQuery.AppointmentQueryBuilder(role, user);
+        int limit = SHOW_APPOINTMENTS_PAGE_SIZE;
+        long after = -1;
+        int dates = 0;
         try {
-            PreparedStatement statement = con.prepareStatement(selectStatement);
-            statement.setString(1, user);
-            ResultSet resultSet = statement.executeQuery();
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].equals("--limit") && i + 1 < tokens.length) {
+                    limit = Integer.parseInt(tokens[++i]);
+                } else if (tokens[i].equals("--after") && i + 1 < tokens.length) {
+                    after = Long.parseLong(tokens[++i]);
+                } else if (dates == 0) {
+                    query.from(Date.valueOf(tokens[i]));
+                    dates++;
+                } else if (dates == 1) {
+                    query.to(Date.valueOf(tokens[i]));
+                    dates++;
+                } else {
+                    out.println("Please try again!");
+                    return INVALID;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // also covers NumberFormatException
+            out.println("Please try again!");
+            return INVALID;
+        }
+        if (limit <= 0 || limit > MAX_SHOW_APPOINTMENTS_PAGE_SIZE) {
+            out.println("Please enter a limit between 1 and " + MAX_SHOW_APPOINTMENTS_PAGE_SIZE + "!");
+            return INVALID;
+        }
+
+        AppointmentDao appointments = StorageManager.get().appointments();
+        try {
+            if (after >= 0) {
+                // the page continues after this appointment's (Time, AppointmentID)
+                Appointment last = appointments.get(after);
+                String owner = last == null ? null
+                        : role == AppointmentQuery.Role.CAREGIVER ? last.getCaregiverID() : last.getPatientID();
+                if (!user.equals(owner)) {
+                    out.println("Please try again!");
+                    return INVALID;
+                }
+                query.after(last.getTime(), last.getAppointmentID());
+            }
 
-            ResultSetMetaData rsmd = resultSet.getMetaData();
-            int columnsNumber = rsmd.getColumnCount();
-            while (resultSet.next()) {
-                for (int i = 1; i <= columnsNumber; i++) {
-                    if (i > 1) System.out.print(",  ");
-                    String columnValue = resultSet.getString(i);
-                    System.out.print(columnValue);
+            out.println(role == AppointmentQuery.Role.CAREGIVER
+                    ? "AppointmentID  Vaccine  Date  Time  PatientID" : "AppointmentID  Vaccine  Date  Time  CaregiverID");
+            // one row more than the page tells us whether there is a next page
+            int pageSize = limit;
+            // rows seen so far and the id of the last one printed
+            long[] seen = {0, -1};
+            appointments.find(query.limit(pageSize + 1).build(), appointment -> {
+                if (seen[0]++ == pageSize) {
+                    return;
                 }
-                System.out.println("");
+                String other = role == AppointmentQuery.Role.CAREGIVER
+                        ? appointment.getPatientID() : appointment.getCaregiverID();
+                out.println(appointment.getAppointmentID() + ",  " + appointment.getVaccine() + ",  " +
+                        appointment.getTime() + ",  " + Slot.formatStart(appointment.getSlot()) + ",  " + other);
+                seen[1] = appointment.getAppointmentID();
+            });
+            out.println();
+            if (seen[0] > pageSize) {
+                out.println("More appointments follow, continue with --after " + seen[1]);
+            }
+            if (role == AppointmentQuery.Role.PATIENT) {
+                showWaitlist(user);
             }
-            System.out.println();
         } catch (SQLException e) {
-            System.out.println("Error occurred when retrieving data");
+            out.println("Error occurred when retrieving data");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return ERROR;
         }
+        return OK;
     }
 
-    private static void logout(String[] tokens) {
-        // add login check
-        if(currentCaregiver == null & currentPatient == null){
-            System.out.println("Please login first");
+    // the patient's waitlist requests; the outcome of a request is shown once, then it is removed
+    private void showWaitlist(String patient) throws SQLException {
+        WaitlistDao waitlist = StorageManager.get().waitlist();
+        List<WaitlistEntry> entries = waitlist.forPatient(patient);
+        if (entries.isEmpty()) {
             return;
         }
+        out.println("Waitlist:");
+        long lastResolved = -1;
+        for (WaitlistEntry entry : entries) {
+            out.println(entry.getWaitlistID() + ",  " + entry.getVaccine() + ",  " + entry.getTime() + ",  " +
+                    describe(entry));
+            if (entry.getStatus() != WaitlistEntry.Status.WAITING) {
+                lastResolved = entry.getWaitlistID();
+            }
+        }
+        out.println();
+        if (lastResolved >= 0) {
+            waitlist.acknowledge(patient, lastResolved);
+        }
+    }
 
-        // token check
-        if(tokens.length!=1){
-            System.out.println("Try again");
-            return;
+    private static String describe(WaitlistEntry entry) {
+        switch (entry.getStatus()) {
+            case FILLED:
+                return "booked as appointment " + entry.getAppointmentID();
+            case ALREADY_BOOKED:
+                return entry.getAppointmentID() < 0 ? "dropped, you booked this date yourself"
+                        : "dropped, you already have appointment " + entry.getAppointmentID();
+            case NO_SUCH_VACCINE:
+                return "dropped, the vaccine does not exist";
+            case EXPIRED:
+                return "expired, no place came free in time";
+            default:
+                return "waiting";
+        }
+    }
+
+    private int capacityReport(String[] tokens) {
+        // capacity_report <from> <to>
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return INVALID;
         }
+        // check 2: the date range
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            out.println("Error occurred when processing date");
+            return INVALID;
+        }
+        if (to.before(from)) {
+            out.println("The end date must not be before the start date!");
+            return INVALID;
+        }
+        long start = System.nanoTime();
+        Storage storage = StorageManager.get();
+        List<DayCapacity> days;
+        SortedMap<String, Integer> doses;
+        try {
+            days = storage.availabilities().getCapacity(from, to);
+            doses = storage.vaccines().getAllDoses();
+        } catch (SQLException e) {
+            out.println("Error occurred when computing the capacity report");
+            e.printStackTrace();
+            return ERROR;
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        out.println(String.format("%-10s %10s %8s %8s %11s", "Date", "Caregivers", "Booked", "Free", "Utilization"));
+        long booked = 0;
+        long free = 0;
+        for (DayCapacity day : days) {
+            out.println(String.format("%-10s %10d %8d %8d %10.1f%%", day.getDate(), day.getCaregivers(),
+                    day.getBooked(), day.getFree(), day.getUtilization() * 100));
+            booked += day.getBooked();
+            free += day.getFree();
+        }
+        out.println(String.format("%-10s %10s %8d %8d %10.1f%%", "Total", "", booked, free,
+                booked + free == 0 ? 0 : 100.0 * booked / (booked + free)));
+        long dosesLeft = 0;
+        StringBuilder perVaccine = new StringBuilder();
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            dosesLeft += vaccine.getValue();
+            perVaccine.append(perVaccine.length() == 0 ? "" : ", ").append(vaccine.getKey()).append(' ')
+                    .append(vaccine.getValue());
+        }
+        out.println("Doses left: " + dosesLeft + (perVaccine.length() == 0 ? "" : " (" + perVaccine + ")") +
+                " for " + free + " free place(s)" + (dosesLeft < free ? ", not enough to fill them" : ""));
+        out.println("Computed in " + elapsedMillis + " ms");
+        return OK;
+    }
+
+    private int stats(String[] tokens) {
+        // stats: latencies of the commands, SQL statements, connection borrows and password hashing so far
+        Metrics.print(out);
+        return OK;
+    }
+
+    private int logout(String[] tokens) {
+        // add login check
+        if(currentCaregiver == null & currentPatient == null){
+            out.println("Please login first");
+            return INVALID;
+        }
+
         currentPatient=null;
         currentCaregiver=null;
-        System.out.println("You have successfully logged out");
+        // the token of this session cannot be used to resume it any more
+        if (currentSession != null) {
+            SessionTokens.getInstance().revoke(currentSession);
+            currentSession = null;
+        }
+        out.println("You have successfully logged out");
+        return OK;
     }
 }
@@ -0,0 +1,140 @@
+package scheduler;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the scheduler's commands over TCP, one Scheduler session (and so one logged-in user) per connection.
+ *
+ * The protocol is line based: the client sends one command per line, the server answers with the output of the
+ * command followed by a line "[exit <code>]" with the same status codes as script mode. "quit" ends the session.
+ * Sessions run on virtual threads when the JVM has them and on a growing pool of platform threads otherwise;
+ * either way a session that waits for its next command does not hold a database connection.
+ */
+public class SchedulerServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Semaphore sessions;
+    private final int idleTimeoutMillis;
+    private final ExecutorService executor = newSessionExecutor();
+
+    public SchedulerServer(InetAddress address, int port, int maxSessions, int idleTimeoutMillis) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1024, address);
+        this.sessions = new Semaphore(maxSessions);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // accepts connections until close is called
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // closed while waiting for a connection
+                return;
+            }
+            if (!sessions.tryAcquire()) {
+                reject(socket);
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    runSession(socket);
+                } finally {
+                    sessions.release();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executor.shutdownNow();
+    }
+
+    private void runSession(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false, "UTF-8")) {
+            s.setSoTimeout(idleTimeoutMillis);
+            s.setTcpNoDelay(true);
+            Scheduler session = new Scheduler(out);
+            session.welcome();
+            session.greetings();
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = Util.tokenize(line);
+                if (tokens.length == 0) {
+                    continue;
+                }
+                if (tokens[0].equals("quit")) {
+                    out.println("Bye!");
+                    break;
+                }
+                int status = session.execute(tokens);
+                out.println("[exit " + status + "]");
+                // the time spent handing the output to a slow client, which the command timings leave out
+                long start = System.nanoTime();
+                out.flush();
+                Metrics.record("server.write", System.nanoTime() - start);
+            }
+        } catch (SocketTimeoutException e) {
+            // idle for too long, the session and its login just end
+        } catch (IOException e) {
+            // the client went away, nothing left to tell it
+        } catch (RuntimeException e) {
+            // the socket is closed by now; only this session ends
+            System.out.println("Error occurred in the session of " + socket.getRemoteSocketAddress());
+            e.printStackTrace();
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write("Too many sessions, please try again later\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+    // virtual threads are looked up reflectively so the code still runs on JDKs before 21
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "scheduler-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
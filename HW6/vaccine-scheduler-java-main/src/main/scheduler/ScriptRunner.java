@@ -0,0 +1,129 @@
+package scheduler;
+
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs commands non-interactively, one per line, without the menu and prompt of the interactive mode.
+ *
+ * A background thread reads ahead while the current command executes, so reading the script never stalls the
+ * database work. Blank lines and lines starting with # are skipped. After each command a status line
+ * "[exit <code>] line <n>: <command> (<ms> ms)" is printed, and a summary with per-command timings at the end.
+ */
+public class ScriptRunner {
+
+    private static final int READ_AHEAD = 1024;
+    // marks the end of the script in the read-ahead queue
+    private static final String END = new String("<end>");
+
+    private final ToIntFunction<String[]> executor;
+
+    public ScriptRunner(ToIntFunction<String[]> executor) {
+        this.executor = executor;
+    }
+
+    // returns the highest status code of any command, so 0 means everything succeeded
+    public int run(BufferedReader reader) throws IOException {
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(READ_AHEAD);
+        IOException[] readError = new IOException[1];
+        Thread readerThread = new Thread(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.put(line);
+                }
+            } catch (IOException e) {
+                readError[0] = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                lines.put(END);
+            } catch (InterruptedException e) {
+                // the runner stopped early, nobody is waiting for the end marker
+            }
+        }, "script-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        Map<String, Timing> timings = new TreeMap<>();
+        int worst = 0;
+        long lineNumber = 0;
+        long commands = 0;
+        long failed = 0;
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                String line = lines.take();
+                if (line == END) {
+                    break;
+                }
+                lineNumber++;
+                String[] tokens = Util.tokenize(line);
+                if (tokens.length == 0 || tokens[0].startsWith("#")) {
+                    continue;
+                }
+                if (tokens[0].equals("quit")) {
+                    break;
+                }
+
+                long commandStart = System.nanoTime();
+                int status = executor.applyAsInt(tokens);
+                long elapsed = System.nanoTime() - commandStart;
+
+                commands++;
+                if (status != 0) {
+                    failed++;
+                }
+                worst = Math.max(worst, status);
+                timings.computeIfAbsent(tokens[0], k -> new Timing()).record(elapsed, status);
+                // only the command name, the arguments may contain a password
+                System.out.println("[exit " + status + "] line " + lineNumber + ": " + tokens[0] +
+                        " (" + String.format("%.3f", elapsed / 1e6) + " ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readerThread.interrupt();
+        }
+        if (readError[0] != null) {
+            throw readError[0];
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println();
+        System.out.println("Ran " + commands + " command(s), " + failed + " failed, in " +
+                String.format("%.1f", elapsed / 1e6) + " ms (" +
+                String.format("%.0f", elapsed == 0 ? 0 : commands * 60e9 / elapsed) + " commands/min)");
+        System.out.println(String.format("%-28s %8s %8s %10s %10s", "command", "count", "failed", "avg ms", "max ms"));
+        for (Map.Entry<String, Timing> timing : timings.entrySet()) {
+            Timing t = timing.getValue();
+            System.out.println(String.format("%-28s %8d %8d %10.3f %10.3f", timing.getKey(), t.count, t.failed,
+                    t.totalNanos / 1e6 / t.count, t.maxNanos / 1e6));
+        }
+        return worst;
+    }
+
+    private static class Timing {
+        private long count = 0;
+        private long failed = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private void record(long nanos, int status) {
+            count++;
+            if (status != 0) {
+                failed++;
+            }
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+}
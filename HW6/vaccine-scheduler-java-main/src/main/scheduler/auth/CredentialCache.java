@@ -0,0 +1,109 @@
+package scheduler.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small LRU cache of logins that were verified recently, so that repeated logins from the same terminal skip
+ * both the database and the key derivation function.
+ *
+ * The password itself is never stored: entries keep an HMAC of it under a key that only lives in this process,
+ * which is cheap to recompute and compare but useless outside of it.
+ */
+public class CredentialCache {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final byte[] macKey = new byte[32];
+    private final ThreadLocal<Mac> macs;
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries;
+
+    public CredentialCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        new SecureRandom().nextBytes(macKey);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CredentialCache.this.maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlMillis > 0;
+    }
+
+    // returns the cached credentials if the user logged in with this exact password within the ttl
+    public CredentialVerifier.Credentials get(String username, String password) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(username);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(username);
+                entry = null;
+            }
+        }
+        if (entry == null || !MessageDigest.isEqual(entry.passwordMac, mac(username, password))) {
+            return null;
+        }
+        return entry.credentials;
+    }
+
+    public void put(String username, String password, CredentialVerifier.Credentials credentials) {
+        if (!isEnabled()) {
+            return;
+        }
+        Entry entry = new Entry(credentials, mac(username, password), System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            entries.put(username, entry);
+        }
+    }
+
+    public synchronized void invalidate(String username) {
+        entries.remove(username);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private byte[] mac(String username, String password) {
+        Mac mac = macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        // separator so that ("ab", "c") and ("a", "bc") do not collide
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class Entry {
+        private final CredentialVerifier.Credentials credentials;
+        private final byte[] passwordMac;
+        private final long expiresAt;
+
+        private Entry(CredentialVerifier.Credentials credentials, byte[] passwordMac, long expiresAt) {
+            this.credentials = credentials;
+            this.passwordMac = passwordMac;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package scheduler.auth;
+
+import scheduler.storage.Storage;
+import scheduler.storage.StorageManager;
+import scheduler.storage.UserDao;
+import scheduler.util.Util;
+
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.function.Function;
+
+/**
+ * Checks a username and password against the Salt, Hash and HashParams stored for an account.
+ *
+ * Accounts hashed with anything other than the current HashParams are rehashed with a fresh salt as soon as their
+ * owner logs in successfully, and successful logins are remembered for a short while in a CredentialCache.
+ */
+public class CredentialVerifier {
+
+    private static final int CACHE_SIZE = Util.intEnv("CredentialCacheSize", 1000);
+    private static final long CACHE_TTL_MILLIS = Util.intEnv("CredentialCacheTtlSeconds", 300) * 1000L;
+
+    public static final CredentialVerifier CAREGIVERS = new CredentialVerifier(Storage::caregivers);
+    public static final CredentialVerifier PATIENTS = new CredentialVerifier(Storage::patients);
+
+    // resolved on every use, the storage is only created on first access
+    private final Function<Storage, UserDao> users;
+    private final CredentialCache cache = new CredentialCache(CACHE_SIZE, CACHE_TTL_MILLIS);
+
+    private CredentialVerifier(Function<Storage, UserDao> users) {
+        this.users = users;
+    }
+
+    // returns null if there is no such user or the password is wrong
+    public Credentials verify(String username, String password) throws SQLException {
+        Credentials credentials = cache.get(username, password);
+        if (credentials != null) {
+            return credentials;
+        }
+        credentials = users.apply(StorageManager.get()).getCredentials(username);
+        if (credentials == null || !credentials.matches(password)) {
+            return null;
+        }
+        HashParams current = HashParams.current();
+        if (!credentials.getParams().equals(current)) {
+            credentials = rehash(username, password, current);
+        }
+        cache.put(username, password, credentials);
+        return credentials;
+    }
+
+    public void invalidate(String username) {
+        cache.invalidate(username);
+    }
+
+    private Credentials rehash(String username, String password, HashParams params) throws SQLException {
+        byte[] salt = Util.generateSalt();
+        byte[] hash = params.hash(password, salt);
+        users.apply(StorageManager.get()).updateCredentials(username, new Credentials(salt, hash, params));
+        return new Credentials(salt, Util.trim(hash), params);
+    }
+
+    public static class Credentials {
+        private final byte[] salt;
+        private final byte[] hash;
+        private final HashParams params;
+
+        public Credentials(byte[] salt, byte[] hash, HashParams params) {
+            this.salt = salt;
+            this.hash = hash;
+            this.params = params;
+        }
+
+        public byte[] getSalt() {
+            return salt;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public HashParams getParams() {
+            return params;
+        }
+
+        private boolean matches(String password) {
+            // trimmed like the stored hash, and compared in constant time
+            return MessageDigest.isEqual(hash, Util.trim(params.hash(password, salt)));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package scheduler.auth;
+
+import scheduler.util.Util;
+
+import java.util.Objects;
+
+/**
+ * The key derivation settings a password hash was computed with. They are stored next to the hash as
+ * "algorithm:iterations:keyLength" so that the settings can be changed without invalidating existing accounts.
+ */
+public class HashParams {
+
+    // what every account created before the HashParams column existed was hashed with, see Util.generateHash
+    public static final HashParams LEGACY = new HashParams("PBKDF2WithHmacSHA1", 10, 16);
+
+    // settings used for new accounts and for rehashing old ones at login
+    private static final HashParams CURRENT = new HashParams(
+            Util.stringEnv("HashAlgorithm", "PBKDF2WithHmacSHA256"),
+            Util.intEnv("HashIterations", 10000),
+            // the Hash column is BINARY(16)
+            128);
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyLength;
+
+    public HashParams(String algorithm, int iterations, int keyLength) {
+        if (iterations <= 0 || keyLength <= 0) {
+            throw new IllegalArgumentException("Invalid hash parameters: " + iterations + ", " + keyLength);
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    public static HashParams current() {
+        return CURRENT;
+    }
+
+    // a null column means the account predates configurable hashing
+    public static HashParams parse(String value) {
+        if (value == null) {
+            return LEGACY;
+        }
+        String[] parts = value.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid hash parameters: " + value);
+        }
+        return new HashParams(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        return Util.generateHash(password, salt, algorithm, iterations, keyLength);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HashParams)) {
+            return false;
+        }
+        HashParams other = (HashParams) o;
+        return iterations == other.iterations && keyLength == other.keyLength && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(algorithm, iterations, keyLength);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + ":" + iterations + ":" + keyLength;
+    }
+}
@@ -0,0 +1,203 @@
+package scheduler.auth;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and checks session tokens, so that a client that logged in once can resume its session (see the resume
+ * command) without the database or the key derivation function.
+ *
+ * A token is the URL safe base64 of a payload, a dot, and the HMAC-SHA256 of the payload. The payload holds the
+ * role, the expiry, a random token id and the username. Checking a token recomputes the HMAC and compares it in
+ * constant time, then looks at the expiry and at the ids revoked by logout, which are kept in memory until their
+ * tokens expire.
+ *
+ * The key is SessionTokenKey (base64, at least 32 bytes), or a random key of this process if it is not set; then
+ * tokens are only good in the process that issued them. Revocations are not shared: with a shared key, a token
+ * revoked in one process stays good in the others until it expires, and in the same process after a restart.
+ */
+public class SessionTokens {
+
+    public enum Role {
+        CAREGIVER,
+        PATIENT
+    }
+
+    private static final byte VERSION = 1;
+    private static final int ID_LENGTH = 16;
+    private static final int MIN_KEY_LENGTH = 32;
+    // version, role, expiry and id ahead of the username
+    private static final int HEADER_LENGTH = 1 + 1 + Long.BYTES + ID_LENGTH;
+
+    // guarded by SessionTokens.class
+    private static SessionTokens instance = null;
+
+    private final ThreadLocal<Mac> macs;
+    private final long ttlSeconds;
+    private final SecureRandom random = new SecureRandom();
+    // token id to the expiry of its token, in epoch seconds
+    private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+
+    public SessionTokens(byte[] key, long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        byte[] macKey = key.clone();
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // created on first use; throws IllegalStateException if SessionTokenKey is set but not a valid key
+    public static synchronized SessionTokens getInstance() {
+        if (instance == null) {
+            instance = new SessionTokens(keyFromEnv(), Util.intEnv("SessionTokenTtlSeconds", 3600));
+        }
+        return instance;
+    }
+
+    public Session issue(Role role, String username) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] id = new byte[ID_LENGTH];
+        random.nextBytes(id);
+        ByteBuffer payload = ByteBuffer.allocate(HEADER_LENGTH + name.length);
+        payload.put(VERSION);
+        payload.put((byte) role.ordinal());
+        payload.putLong(expiresAt);
+        payload.put(id);
+        payload.put(name);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String token = encoder.encodeToString(payload.array()) + "." + encoder.encodeToString(mac(payload.array()));
+        return new Session(role, username, Base64.getEncoder().encodeToString(id), expiresAt, token);
+    }
+
+    // null unless the token was issued with this key, has not expired and has not been revoked
+    public Session verify(String token) {
+        long start = System.nanoTime();
+        try {
+            byte[] payload = verifiedPayload(token);
+            if (payload == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.get(); // version
+            int role = buffer.get();
+            long expiresAt = buffer.getLong();
+            if (role < 0 || role >= Role.values().length || expiresAt <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            String id = Base64.getEncoder().encodeToString(Arrays.copyOfRange(payload, 2 + Long.BYTES,
+                    HEADER_LENGTH));
+            if (revoked.containsKey(id)) {
+                return null;
+            }
+            String username = new String(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH,
+                    StandardCharsets.UTF_8);
+            return new Session(Role.values()[role], username, id, expiresAt, token);
+        } finally {
+            Metrics.record("auth.token", System.nanoTime() - start);
+        }
+    }
+
+    // the token is refused from now on, also if it was presented before
+    public void revoke(Session session) {
+        long now = System.currentTimeMillis() / 1000;
+        // expired tokens are refused anyway, so their ids can go
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        revoked.put(session.id, session.expiresAt);
+    }
+
+    // the payload of a well formed token with a valid HMAC, null for anything else
+    private byte[] verifiedPayload(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] presented;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(0, dot));
+            presented = decoder.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length < HEADER_LENGTH || payload[0] != VERSION) {
+            return null;
+        }
+        // constant time, so the comparison tells nothing about how much of a forged HMAC was right
+        return MessageDigest.isEqual(mac(payload), presented) ? payload : null;
+    }
+
+    private byte[] mac(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private static byte[] keyFromEnv() {
+        String value = Util.stringEnv("SessionTokenKey", "");
+        if (value.isEmpty()) {
+            byte[] key = new byte[MIN_KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+            return key;
+        }
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("SessionTokenKey is not base64");
+        }
+        if (key.length < MIN_KEY_LENGTH) {
+            throw new IllegalStateException("SessionTokenKey must be at least " + MIN_KEY_LENGTH + " bytes");
+        }
+        return key;
+    }
+
+    public static class Session {
+        private final Role role;
+        private final String username;
+        private final String id;
+        private final long expiresAt;
+        private final String token;
+
+        private Session(Role role, String username, String id, long expiresAt, String token) {
+            this.role = role;
+            this.username = username;
+            this.id = id;
+            this.expiresAt = expiresAt;
+            this.token = token;
+        }
+
+        public Role getRole() {
+            return role;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        // epoch seconds
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+}
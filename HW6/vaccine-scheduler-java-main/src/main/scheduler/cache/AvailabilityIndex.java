@@ -0,0 +1,167 @@
+package scheduler.cache;
+
+import scheduler.model.Slot;
+import scheduler.storage.StorageManager;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory copy of the free slots of recently searched dates and of the doses left per vaccine, so that
+ * search_caregiver_schedule is usually answered without touching the database.
+ *
+ * Dates are loaded on first use and evicted least-recently-used first once more than maxDates are cached.
+ * Every command that changes Availabilities or Vaccines reports the change here; entries also expire after a
+ * ttl so that changes made by other processes are eventually picked up.
+ */
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex(
+            Util.intEnv("AvailabilityIndexMaxDates", 365),
+            Util.intEnv("AvailabilityIndexTtlSeconds", 60) * 1000L);
+
+    private final int maxDates;
+    private final long ttlMillis;
+
+    // all fields below are guarded by this
+    private final LinkedHashMap<Date, SlotTable> slotsByDate;
+    private Map<String, Integer> doses = null;
+    private long dosesLoadedAt = 0;
+    // bumped on every change, so a load that raced with a change is not cached
+    private long version = 0;
+
+    public AvailabilityIndex(int maxDates, long ttlMillis) {
+        this.maxDates = maxDates;
+        this.ttlMillis = ttlMillis;
+        this.slotsByDate = new LinkedHashMap<Date, SlotTable>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Date, SlotTable> eldest) {
+                return size() > AvailabilityIndex.this.maxDates;
+            }
+        };
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    // caregivers with a free place on the given date, sorted by username
+    public List<String> getCaregivers(Date d) throws SQLException {
+        SlotTable table = table(d);
+        synchronized (this) {
+            return new ArrayList<>(table.free.keySet());
+        }
+    }
+
+    // slots with free places on the given date, by caregiver and start
+    public List<Slot> getSlots(Date d) throws SQLException {
+        SlotTable table = table(d);
+        synchronized (this) {
+            List<Slot> slots = new ArrayList<>();
+            for (Map.Entry<String, TreeMap<Integer, Integer>> caregiver : table.free.entrySet()) {
+                for (Map.Entry<Integer, Integer> slot : caregiver.getValue().entrySet()) {
+                    slots.add(new Slot(caregiver.getKey(), slot.getKey(), slot.getValue()));
+                }
+            }
+            return slots;
+        }
+    }
+
+    // the cached table of the date, or a freshly loaded one; read it while holding the lock
+    private SlotTable table(Date d) throws SQLException {
+        long loadVersion;
+        synchronized (this) {
+            SlotTable cached = slotsByDate.get(d);
+            if (cached != null && !isExpired(cached.loadedAt)) {
+                return cached;
+            }
+            loadVersion = version;
+        }
+        SlotTable loaded = new SlotTable(System.currentTimeMillis());
+        for (Slot slot : StorageManager.get().availabilities().getSlots(d)) {
+            loaded.add(slot.getCaregiver(), slot.getStart(), slot.getCapacity());
+        }
+        synchronized (this) {
+            if (loadVersion == version && maxDates > 0) {
+                slotsByDate.put(d, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    // doses left per vaccine, sorted by vaccine name
+    public SortedMap<String, Integer> getDoses() throws SQLException {
+        long loadVersion;
+        synchronized (this) {
+            if (doses != null && !isExpired(dosesLoadedAt)) {
+                return new TreeMap<>(doses);
+            }
+            loadVersion = version;
+        }
+        Map<String, Integer> loaded = StorageManager.get().vaccines().getAllDoses();
+        synchronized (this) {
+            if (loadVersion == version) {
+                doses = loaded;
+                dosesLoadedAt = System.currentTimeMillis();
+            }
+        }
+        return new TreeMap<>(loaded);
+    }
+
+    // delta is negative when places are taken
+    public synchronized void addCapacity(Date d, String caregiver, int slot, int delta) {
+        version++;
+        SlotTable cached = slotsByDate.get(d);
+        if (cached != null) {
+            cached.add(caregiver, slot, delta);
+        }
+    }
+
+    // delta is negative when doses are used up; a vaccine we have not seen yet starts at delta
+    public synchronized void addDoses(String vaccine, int delta) {
+        version++;
+        if (doses != null) {
+            doses.merge(vaccine, delta, Integer::sum);
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        slotsByDate.clear();
+        doses = null;
+    }
+
+    private boolean isExpired(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt >= ttlMillis;
+    }
+
+    private static class SlotTable {
+        // caregiver to slot start to free places, only slots with free places
+        private final TreeMap<String, TreeMap<Integer, Integer>> free = new TreeMap<>();
+        private final long loadedAt;
+
+        private SlotTable(long loadedAt) {
+            this.loadedAt = loadedAt;
+        }
+
+        private void add(String caregiver, int slot, int delta) {
+            TreeMap<Integer, Integer> slots = free.computeIfAbsent(caregiver, k -> new TreeMap<>());
+            int capacity = slots.getOrDefault(slot, 0) + delta;
+            if (capacity > 0) {
+                slots.put(slot, capacity);
+            } else {
+                slots.remove(slot);
+                if (slots.isEmpty()) {
+                    free.remove(caregiver);
+                }
+            }
+        }
+    }
+}
@@ -1,19 +1,41 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    // not final, see useDatabase
+    private static String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static String userName = System.getenv("UserID");
+    private static String userPass = System.getenv("Password");
+
+    // pool settings, all optional
+    private static final int poolMinSize = Util.intEnv("PoolMinSize", 1);
+    private static final int poolMaxSize = Util.intEnv("PoolMaxSize", 8);
+    private static final long poolIdleTimeoutMillis = Util.intEnv("PoolIdleTimeoutSeconds", 300) * 1000L;
+    private static final long poolBorrowTimeoutMillis = Util.intEnv("PoolBorrowTimeoutSeconds", 30) * 1000L;
+    private static final int poolValidationTimeoutSeconds = Util.intEnv("PoolValidationTimeoutSeconds", 2);
+    // prepared statements kept open per connection, 0 turns the cache off
+    private static final int statementCacheSize = Util.intEnv("StatementCacheSize", 50);
+
+    // shared by every ConnectionManager so that connections outlive a single command
+    private static ConnectionPool pool = null;
 
     private Connection con = null;
 
+    static {
+        Metrics.gauge("pool.total", () -> currentStats() == null ? 0 : currentStats().getTotal());
+        Metrics.gauge("pool.borrowed", () -> currentStats() == null ? 0 : currentStats().getBorrowed());
+        Metrics.gauge("pool.waiting", () -> currentStats() == null ? 0 : currentStats().getWaiting());
+    }
+
     public ConnectionManager() {
         try {
             Class.forName(driverName);
@@ -22,20 +44,57 @@ public class ConnectionManager {
         }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // throws when no connection could be opened or borrowed in time, never returns null
+    public Connection createConnection() throws SQLException {
+        // hand back a connection that was never closed instead of leaking it from the pool
+        closeConnection();
+        con = getPool().borrow();
         return con;
     }
 
     public void closeConnection() {
-        try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (this.con != null) {
+            getPool().release(this.con);
+            this.con = null;
+        }
+    }
+
+    public static ConnectionPool.Stats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    public static StatementCache.Stats getStatementCacheStats() {
+        return StatementCache.getStats();
+    }
+
+    // points all further connections at another database, e.g. a local one for benchmarks
+    public static synchronized void useDatabase(String url, String user, String password) {
+        shutdown();
+        connectionUrl = url;
+        userName = user;
+        userPass = password;
+    }
+
+    // closes every idle connection, called once when the application exits
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    // null while no pool exists, e.g. with memory storage
+    private static synchronized ConnectionPool.Stats currentStats() {
+        return pool == null ? null : pool.getStats();
+    }
+
+    private static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool(() -> StatementCache.wrap(
+                    DriverManager.getConnection(connectionUrl, userName, userPass), statementCacheSize),
+                    poolMinSize, poolMaxSize, poolIdleTimeoutMillis, poolBorrowTimeoutMillis,
+                    poolValidationTimeoutSeconds);
         }
+        return pool;
     }
 }
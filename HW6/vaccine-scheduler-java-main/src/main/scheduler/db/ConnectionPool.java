@@ -0,0 +1,386 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Idle connections are handed out most-recently-used first so the warm ones get reused, validated on borrow,
+ * and closed by a background evictor once they have been idle for longer than the idle timeout (never going
+ * below the configured minimum size).
+ */
+public class ConnectionPool {
+
+    // creates the physical connections held by the pool
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutNanos;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // head is the most recently returned connection
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    // all counters below are guarded by lock
+    private int total = 0;
+    private int borrowed = 0;
+    private int waiting = 0;
+    private long borrowCount = 0;
+    private long timeoutCount = 0;
+    private long discardCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private boolean closed = false;
+
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize, long idleTimeoutMillis,
+                          long borrowTimeoutMillis, int validationTimeoutSeconds) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = borrowTimeoutNanos;
+        while (true) {
+            IdleConnection candidate;
+            lock.lock();
+            try {
+                while (!closed && idle.isEmpty() && total >= maxSize) {
+                    if (remaining <= 0) {
+                        timeoutCount++;
+                        Metrics.error("pool.acquire");
+                        throw new SQLException("Timed out waiting for a database connection");
+                    }
+                    waiting++;
+                    try {
+                        remaining = available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection", e);
+                    } finally {
+                        waiting--;
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                candidate = idle.pollFirst();
+                // reserve a slot so that concurrent borrowers do not exceed maxSize while we connect
+                if (candidate == null) {
+                    total++;
+                }
+                borrowed++;
+            } finally {
+                lock.unlock();
+            }
+
+            Connection con;
+            if (candidate == null) {
+                try {
+                    con = factory.create();
+                } catch (SQLException | RuntimeException e) {
+                    discardBorrowed();
+                    Metrics.error("pool.acquire");
+                    throw e;
+                }
+            } else if (isValid(candidate.connection)) {
+                con = candidate.connection;
+            } else {
+                // stale connection (e.g. dropped by the server), replace it and try again
+                closeQuietly(candidate.connection);
+                discardBorrowed();
+                continue;
+            }
+
+            long waited = System.nanoTime() - start;
+            lock.lock();
+            try {
+                borrowCount++;
+                totalWaitNanos += waited;
+                maxWaitNanos = Math.max(maxWaitNanos, waited);
+            } finally {
+                lock.unlock();
+            }
+            // includes connecting and validating, not just waiting for a free connection
+            Metrics.record("pool.acquire", waited);
+            return con;
+        }
+    }
+
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        boolean reusable = reset(con);
+        lock.lock();
+        try {
+            borrowed--;
+            if (reusable && !closed) {
+                idle.addFirst(new IdleConnection(con, System.currentTimeMillis()));
+                available.signal();
+                return;
+            }
+            total--;
+            discardCount++;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(con);
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(total, idle.size(), borrowed, waiting, borrowCount, timeoutCount, discardCount,
+                    totalWaitNanos, maxWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        evictor.shutdownNow();
+        List<Connection> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            for (IdleConnection c : idle) {
+                toClose.add(c.connection);
+            }
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        toClose.forEach(ConnectionPool::closeQuietly);
+    }
+
+    // evicts connections idle for too long, then tops the pool back up to minSize
+    private void maintain() {
+        List<Connection> expired = new ArrayList<>();
+        int missing;
+        lock.lock();
+        try {
+            long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+            Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext() && total > minSize) {
+                IdleConnection c = oldestFirst.next();
+                if (c.lastUsed > cutoff) {
+                    break;
+                }
+                oldestFirst.remove();
+                total--;
+                expired.add(c.connection);
+            }
+            missing = closed ? 0 : minSize - total;
+            total += Math.max(0, missing);
+        } finally {
+            lock.unlock();
+        }
+        expired.forEach(ConnectionPool::closeQuietly);
+
+        for (int i = 0; i < missing; i++) {
+            Connection con;
+            try {
+                con = factory.create();
+            } catch (SQLException | RuntimeException e) {
+                // the database is unreachable right now, give the slots back and retry on the next run
+                lock.lock();
+                try {
+                    total -= missing - i;
+                    available.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            boolean keep;
+            lock.lock();
+            try {
+                keep = !closed;
+                if (keep) {
+                    idle.addLast(new IdleConnection(con, System.currentTimeMillis()));
+                    available.signal();
+                } else {
+                    total--;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!keep) {
+                closeQuietly(con);
+            }
+        }
+    }
+
+    private boolean isValid(Connection con) {
+        try {
+            return !con.isClosed() && con.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // leave the connection the way a fresh one would be, so the next borrower does not inherit a transaction
+    private boolean reset(Connection con) {
+        try {
+            if (con.isClosed()) {
+                return false;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discardBorrowed() {
+        lock.lock();
+        try {
+            total--;
+            borrowed--;
+            discardCount++;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            // nothing useful to do, the connection is being thrown away anyway
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long lastUsed;
+
+        private IdleConnection(Connection connection, long lastUsed) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    public static class Stats {
+        private final int total;
+        private final int idle;
+        private final int borrowed;
+        private final int waiting;
+        private final long borrowCount;
+        private final long timeoutCount;
+        private final long discardCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        private Stats(int total, int idle, int borrowed, int waiting, long borrowCount, long timeoutCount,
+                      long discardCount, long totalWaitNanos, long maxWaitNanos) {
+            this.total = total;
+            this.idle = idle;
+            this.borrowed = borrowed;
+            this.waiting = waiting;
+            this.borrowCount = borrowCount;
+            this.timeoutCount = timeoutCount;
+            this.discardCount = discardCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getBorrowed() {
+            return borrowed;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getDiscardCount() {
+            return discardCount;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public double getAverageWaitMillis() {
+            return borrowCount == 0 ? 0 : totalWaitNanos / 1e6 / borrowCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "total=" + total +
+                    ", idle=" + idle +
+                    ", borrowed=" + borrowed +
+                    ", waiting=" + waiting +
+                    ", borrowCount=" + borrowCount +
+                    ", timeouts=" + timeoutCount +
+                    ", discarded=" + discardCount +
+                    ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                    ", maxWaitMs=" + String.format("%.3f", maxWaitNanos / 1e6) +
+                    '}';
+        }
+    }
+}
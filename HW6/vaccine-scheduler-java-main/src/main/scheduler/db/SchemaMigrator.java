@@ -0,0 +1,149 @@
+package scheduler.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Brings the database schema up to date by applying the scripts in resources/migrations that it has not seen yet.
+ *
+ * Applied versions are recorded in SchemaVersion. Each script runs in its own transaction together with its
+ * SchemaVersion row, so a failed script leaves no trace and is retried on the next start. An application lock
+ * makes concurrently starting instances apply the scripts one after the other. Scripts are split into batches at
+ * lines consisting of GO, as in sqlcmd.
+ */
+public class SchemaMigrator {
+
+    // in the order they are applied; a released script is never changed, later changes get a new script
+    private static final String[] MIGRATIONS = {
+            "V1__baseline.sql",
+            "V2__query_indexes.sql",
+            "V3__time_slots.sql",
+            "V4__caregiver_loads.sql",
+            "V5__waitlist.sql",
+            "V6__dose_leases.sql",
+            "V7__dose_uses.sql"
+    };
+    private static final String RESOURCE_DIRECTORY = "/resources/migrations/";
+
+    private static final String CREATE_VERSION_TABLE = "IF OBJECT_ID('SchemaVersion') IS NULL " +
+            "CREATE TABLE SchemaVersion (Version int PRIMARY KEY, Script varchar(255) NOT NULL, " +
+            "AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME())";
+    private static final String SELECT_VERSIONS = "SELECT Version FROM SchemaVersion";
+    private static final String INSERT_VERSION = "INSERT INTO SchemaVersion (Version, Script) VALUES (?, ?)";
+    private static final String LOCK = "DECLARE @result int; " +
+            "EXEC @result = sp_getapplock @Resource = 'SchemaMigrator', @LockMode = 'Exclusive', " +
+            "@LockOwner = 'Session', @LockTimeout = 600000; " +
+            "IF @result < 0 THROW 50000, 'Timed out waiting for another instance to migrate the schema', 1;";
+    private static final String UNLOCK =
+            "EXEC sp_releaseapplock @Resource = 'SchemaMigrator', @LockOwner = 'Session'";
+
+    // returns the number of scripts applied
+    public int migrate() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (Statement statement = con.createStatement()) {
+            statement.execute(LOCK);
+            // the error of the migration, which an error releasing the lock must not hide
+            Exception failure = null;
+            try {
+                statement.execute(CREATE_VERSION_TABLE);
+                Set<Integer> applied = new HashSet<>();
+                try (ResultSet resultSet = statement.executeQuery(SELECT_VERSIONS)) {
+                    while (resultSet.next()) {
+                        applied.add(resultSet.getInt(1));
+                    }
+                }
+                int count = 0;
+                for (String script : MIGRATIONS) {
+                    int version = versionOf(script);
+                    if (!applied.contains(version)) {
+                        apply(con, version, script);
+                        count++;
+                    }
+                }
+                return count;
+            } catch (SQLException | RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                try {
+                    statement.execute(UNLOCK);
+                } catch (SQLException e) {
+                    if (failure == null) {
+                        throw e;
+                    }
+                    failure.addSuppressed(e);
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void apply(Connection con, int version, String script) throws SQLException {
+        List<String> batches = readBatches(script);
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement();
+             PreparedStatement record = con.prepareStatement(INSERT_VERSION)) {
+            for (String batch : batches) {
+                statement.execute(batch);
+            }
+            record.setInt(1, version);
+            record.setString(2, script);
+            record.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Migration " + script + " failed: " + e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    // V12__name.sql is version 12
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static List<String> readBatches(String script) throws SQLException {
+        InputStream in = SchemaMigrator.class.getResourceAsStream(RESOURCE_DIRECTORY + script);
+        if (in == null) {
+            throw new SQLException("Migration " + script + " is missing from the classpath");
+        }
+        List<String> batches = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            StringBuilder batch = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().equalsIgnoreCase("GO")) {
+                    addBatch(batches, batch);
+                } else {
+                    batch.append(line).append('\n');
+                }
+            }
+            addBatch(batches, batch);
+        } catch (IOException e) {
+            throw new SQLException("Could not read migration " + script, e);
+        }
+        return batches;
+    }
+
+    private static void addBatch(List<String> batches, StringBuilder batch) {
+        if (!batch.toString().trim().isEmpty()) {
+            batches.add(batch.toString());
+        }
+        batch.setLength(0);
+    }
+}
@@ -0,0 +1,65 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out ids from a database sequence, reserving them in blocks so that only one in every blockSize calls
+ * needs a round trip. Ids of a block that is not used up before the process exits are skipped, so the
+ * resulting ids are unique and increasing but not gap free.
+ */
+public class SequenceAllocator {
+
+    // sp_sequence_get_range returns the first value as sql_variant, cast it here instead of in the driver
+    private static final String GET_RANGE = "SET NOCOUNT ON; " +
+            "DECLARE @first sql_variant; " +
+            "EXEC sys.sp_sequence_get_range @sequence_name = ?, @range_size = ?, @range_first_value = @first OUTPUT; " +
+            "SELECT CAST(@first AS bigint);";
+
+    static {
+        StatementCache.nameStatement(GET_RANGE, "SEQUENCE_RANGE");
+    }
+
+    private final String sequenceName;
+    private final int blockSize;
+
+    // next id to hand out and the first id past the current block, guarded by this
+    private long next = 0;
+    private long limit = 0;
+
+    public SequenceAllocator(String sequenceName, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    public synchronized long nextId() throws SQLException {
+        if (next >= limit) {
+            next = fetchBlock();
+            limit = next + blockSize;
+        }
+        return next++;
+    }
+
+    // uses its own connection: sequence values are not transactional, so there is no point tying them to the caller's
+    private long fetchBlock() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(GET_RANGE)) {
+            statement.setString(1, sequenceName);
+            statement.setInt(2, blockSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Sequence " + sequenceName + " returned no value");
+                }
+                return resultSet.getLong(1);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
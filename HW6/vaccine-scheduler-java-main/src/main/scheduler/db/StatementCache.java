@@ -0,0 +1,267 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the prepared statements of one physical connection open for reuse, least recently used evicted first.
+ *
+ * Connections are handed out wrapped (see wrap): prepareStatement(String) returns the cached statement when the
+ * connection has prepared the same SQL before, and closing it returns it to the cache instead of closing it. The
+ * DAOs keep their try-with-resources blocks, and only the first use of a statement on a connection pays for the
+ * server side prepare. The cached statements are closed together with the connection.
+ *
+ * Statements prepared with a result set type and concurrency are not cached. Every execution of a prepared statement
+ * is also timed, into the histogram sql.<name> of Metrics, where the name
+ * is the one given to the SQL text with nameStatement.
+ */
+public class StatementCache {
+
+    // over all connections, since connections come and go with the pool
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    // SQL text to the name its executions are timed under
+    private static final ConcurrentHashMap<String, String> statementNames = new ConcurrentHashMap<>();
+
+    static {
+        Metrics.gauge("sql.cache.hits", hits::sum);
+        Metrics.gauge("sql.cache.misses", misses::sum);
+        Metrics.gauge("sql.cache.evictions", evictions::sum);
+    }
+
+    private final Connection connection;
+    private final int capacity;
+    // access ordered, so iteration starts at the least recently used statement; guarded by this
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    private StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+    }
+
+    // with a capacity of 0 nothing is cached, but executions are still timed
+    public static Connection wrap(Connection connection, int capacity) {
+        StatementCache cache = new StatementCache(connection, capacity);
+        return (Connection) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> cache.onConnection(proxy, method, args));
+    }
+
+    // statements without a name are timed as sql.other
+    public static void nameStatement(String sql, String name) {
+        statementNames.putIfAbsent(sql, name);
+    }
+
+    public static Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private Object onConnection(Object proxy, Method method, Object[] args) throws Throwable {
+        int arity = args == null ? 0 : args.length;
+        switch (method.getName()) {
+            case "prepareStatement":
+                if (arity == 1) {
+                    return prepare((String) args[0]);
+                }
+                if (arity == 3) {
+                    // with a result set type and concurrency, e.g. for a server cursor: not cached, but timed
+                    return new CachedStatement((String) args[0], (PreparedStatement) invoke(connection, method, args),
+                            false).proxy;
+                }
+                break;
+            case "close":
+                if (arity == 0) {
+                    closeAll();
+                }
+                break;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                break;
+        }
+        return invoke(connection, method, args);
+    }
+
+    private synchronized PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            hits.increment();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+        misses.increment();
+        if (cached != null || capacity <= 0) {
+            // caching is off, or an enclosing block is still using the cached one: this one is closed as usual
+            return new CachedStatement(sql, connection.prepareStatement(sql), false).proxy;
+        }
+        cached = new CachedStatement(sql, connection.prepareStatement(sql), true);
+        statements.put(sql, cached);
+        evict();
+        return cached.proxy;
+    }
+
+    // closes the least recently used statements that are not in use until the cache fits
+    private void evict() {
+        Iterator<CachedStatement> leastRecentFirst = statements.values().iterator();
+        while (statements.size() > capacity && leastRecentFirst.hasNext()) {
+            CachedStatement cached = leastRecentFirst.next();
+            if (!cached.inUse) {
+                leastRecentFirst.remove();
+                evictions.increment();
+                closeQuietly(cached.statement);
+            }
+        }
+    }
+
+    private synchronized void release(CachedStatement cached) {
+        cached.inUse = false;
+        try {
+            cached.statement.clearParameters();
+            cached.statement.clearBatch();
+        } catch (SQLException e) {
+            // not reusable, prepare it again next time
+            statements.values().remove(cached);
+            closeQuietly(cached.statement);
+        }
+    }
+
+    private void closeAll() {
+        List<CachedStatement> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(statements.values());
+            statements.clear();
+        }
+        for (CachedStatement cached : toClose) {
+            closeQuietly(cached.statement);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away anyway
+        }
+    }
+
+    private class CachedStatement {
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private final String timer;
+        // false for statements that are closed for real when the caller closes them
+        private final boolean cached;
+        private boolean inUse = true;
+
+        private CachedStatement(String sql, PreparedStatement statement, boolean cached) {
+            this.statement = statement;
+            this.timer = "sql." + statementNames.getOrDefault(sql, "other");
+            this.cached = cached;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this::onStatement);
+        }
+
+        private Object onStatement(Object proxy, Method method, Object[] args) throws Throwable {
+            int arity = args == null ? 0 : args.length;
+            switch (method.getName()) {
+                case "close":
+                    if (arity == 0 && cached) {
+                        release(this);
+                        return null;
+                    }
+                    break;
+                case "execute":
+                case "executeQuery":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    return timed(method, args);
+                case "isClosed":
+                    if (arity == 0 && cached) {
+                        return !inUse || statement.isClosed();
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            return invoke(statement, method, args);
+        }
+
+        private Object timed(Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                return invoke(statement, method, args);
+            } catch (SQLException e) {
+                Metrics.error(timer);
+                throw e;
+            } finally {
+                Metrics.record(timer, System.nanoTime() - start);
+            }
+        }
+    }
+
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", hitRate=" + String.format("%.3f", getHitRate()) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package scheduler.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The process wide latency histograms, counters and gauges, by name. Names are dotted by area: command.*, sql.*,
+ * pool.*, auth.*, server.*, waitlist.*, ledger.*. A failure of something that is timed counts towards the counter
+ * "<name>.errors".
+ *
+ * The stats command prints them as a table, and startDump appends them as one JSON object per line to a file.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    // guarded by Metrics.class
+    private static ScheduledExecutorService dumper = null;
+    private static Path dumpFile = null;
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    public static void increment(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    public static void error(String name) {
+        increment(name + ".errors");
+    }
+
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    // a value read when the metrics are printed or dumped, e.g. the size of the connection pool
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static void print(PrintStream out) {
+        out.println(String.format("%-36s %8s %8s %10s %10s %10s %10s %10s", "timer", "count", "errors",
+                "avg ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            out.println(String.format("%-36s %8d %8d %10.3f %10.3f %10.3f %10.3f %10.3f", entry.getKey(),
+                    h.getCount(), getCount(entry.getKey() + ".errors"), h.getMeanNanos() / 1e6,
+                    h.getPercentileNanos(50) / 1e6, h.getPercentileNanos(90) / 1e6,
+                    h.getPercentileNanos(99) / 1e6, h.getMaxNanos() / 1e6));
+        }
+        TreeMap<String, Long> values = values();
+        if (!values.isEmpty()) {
+            out.println();
+            out.println(String.format("%-36s %8s", "counter", "value"));
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                out.println(String.format("%-36s %8d", entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    // one line: {"time":..., "timers":{"<name>":{"count":...,"p50":...}}, "counters":{...}}, latencies in ns
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"time\":").append(System.currentTimeMillis()).append(",\"timers\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            json.append(first ? "" : ",").append(quote(entry.getKey()))
+                    .append(":{\"count\":").append(h.getCount())
+                    .append(",\"mean\":").append(Math.round(h.getMeanNanos()))
+                    .append(",\"p50\":").append(h.getPercentileNanos(50))
+                    .append(",\"p90\":").append(h.getPercentileNanos(90))
+                    .append(",\"p99\":").append(h.getPercentileNanos(99))
+                    .append(",\"p999\":").append(h.getPercentileNanos(99.9))
+                    .append(",\"max\":").append(h.getMaxNanos()).append('}');
+            first = false;
+        }
+        json.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : values().entrySet()) {
+            json.append(first ? "" : ",").append(quote(entry.getKey())).append(':').append(entry.getValue());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    // appends toJson to file every periodSeconds until stopDump
+    public static synchronized void startDump(Path file, int periodSeconds) {
+        stopDump();
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // stops the periodic dump after writing the final numbers
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+            dump(dumpFile);
+        }
+    }
+
+    private static void dump(Path file) {
+        try {
+            Files.write(file, (toJson() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static TreeMap<String, Long> values() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    private static String quote(String name) {
+        return "\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
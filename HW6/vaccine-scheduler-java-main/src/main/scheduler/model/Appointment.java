@@ -0,0 +1,60 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final long appointmentID;
+    private final Date time;
+    private final String patientID;
+    private final String caregiverID;
+    private final String vaccine;
+    private final int slot;
+
+    public Appointment(long appointmentID, Date time, String patientID, String caregiverID, String vaccine,
+                       int slot) {
+        this.appointmentID = appointmentID;
+        this.time = time;
+        this.patientID = patientID;
+        this.caregiverID = caregiverID;
+        this.vaccine = vaccine;
+        this.slot = slot;
+    }
+
+    // Getters
+    public long getAppointmentID() {
+        return appointmentID;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getPatientID() {
+        return patientID;
+    }
+
+    public String getCaregiverID() {
+        return caregiverID;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    // start of the time slot, see Slot
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentID=" + appointmentID +
+                ", time=" + time +
+                ", patientID='" + patientID + '\'' +
+                ", caregiverID='" + caregiverID + '\'' +
+                ", vaccine='" + vaccine + '\'' +
+                ", slot=" + Slot.formatStart(slot) +
+                '}';
+    }
+}
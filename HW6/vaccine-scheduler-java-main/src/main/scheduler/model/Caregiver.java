@@ -1,26 +1,34 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.service.WaitlistAllocator;
+import scheduler.storage.StorageManager;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final HashParams hashParams;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -36,50 +44,61 @@ public class Caregiver {
         return hash;
     }
 
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.get().caregivers().insert(this.username,
+                new CredentialVerifier.Credentials(this.salt, this.hash, this.hashParams));
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        StorageManager.get().availabilities().add(d, this.username);
+        AvailabilityIndex.getInstance().addCapacity(d, this.username, Slot.WHOLE_DAY, 1);
+        // new places may let waitlisted patients in
+        WaitlistAllocator.getInstance().wake();
+    }
+
+    // Adds every date the caregiver is not already available or booked on, in one transaction.
+    // Returns how many dates were actually added.
+    public int uploadAvailabilities(Collection<Date> dates) throws SQLException {
+        List<Date> added = StorageManager.get().availabilities().addAll(this.username, dates);
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (Date d : added) {
+            index.addCapacity(d, this.username, Slot.WHOLE_DAY, 1);
+        }
+        if (!added.isEmpty()) {
+            WaitlistAllocator.getInstance().wake();
         }
+        return added.size();
+    }
+
+    // Adds the time slots starting at starts, each taking capacity patients, in one transaction.
+    // Returns false if the caregiver is already available or booked on the date.
+    public boolean uploadSlots(Date d, Collection<Integer> starts, int capacity) throws SQLException {
+        if (!StorageManager.get().availabilities().addSlots(d, this.username, starts, capacity)) {
+            return false;
+        }
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (int start : starts) {
+            index.addCapacity(d, this.username, start, capacity);
+        }
+        WaitlistAllocator.getInstance().wake();
+        return true;
     }
 
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final HashParams hashParams;
 
-        public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Caregiver build() {
@@ -92,6 +111,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private HashParams hashParams;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,35 +119,15 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            // checks the password, served from the cache of recent logins when possible
+            CredentialVerifier.Credentials credentials = CredentialVerifier.CAREGIVERS.verify(username, password);
+            if (credentials == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            this.hashParams = credentials.getParams();
+            return new Caregiver(this);
         }
     }
 }
@@ -0,0 +1,54 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+/**
+ * Places of all caregivers on one date: how many were booked and how many are still free, a row of capacity_report.
+ */
+public class DayCapacity {
+
+    private final Date date;
+    private final int caregivers;
+    private final long booked;
+    private final long free;
+
+    public DayCapacity(Date date, int caregivers, long booked, long free) {
+        this.date = date;
+        this.caregivers = caregivers;
+        this.booked = booked;
+        this.free = free;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    // caregivers available or booked on the date
+    public int getCaregivers() {
+        return caregivers;
+    }
+
+    public long getBooked() {
+        return booked;
+    }
+
+    public long getFree() {
+        return free;
+    }
+
+    // booked share of the places published, 0 if there are none
+    public double getUtilization() {
+        long published = booked + free;
+        return published == 0 ? 0 : (double) booked / published;
+    }
+
+    @Override
+    public String toString() {
+        return "DayCapacity{" +
+                "date=" + date +
+                ", caregivers=" + caregivers +
+                ", booked=" + booked +
+                ", free=" + free +
+                '}';
+    }
+}
@@ -1,25 +1,28 @@
 package scheduler.model;
-import scheduler.db.ConnectionManager;
-import scheduler.util.Util;
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.storage.StorageManager;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.SQLException;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final HashParams hashParams;
 
     private Patient(Patient.PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Patient(Patient.PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -35,22 +38,13 @@ public class Patient {
         return hash;
     }
 
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.get().patients().insert(this.username,
+                new CredentialVerifier.Credentials(this.salt, this.hash, this.hashParams));
     }
 
 
@@ -58,11 +52,13 @@ public class Patient {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final HashParams hashParams;
 
-        public PatientBuilder(String username, byte[] salt, byte[] hash) {
+        public PatientBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Patient build() {
@@ -75,6 +71,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private HashParams hashParams;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -82,35 +79,15 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            // checks the password, served from the cache of recent logins when possible
+            CredentialVerifier.Credentials credentials = CredentialVerifier.PATIENTS.verify(username, password);
+            if (credentials == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.salt = credentials.getSalt();
+            this.hash = credentials.getHash();
+            this.hashParams = credentials.getParams();
+            return new Patient(this);
         }
     }
 }
@@ -0,0 +1,58 @@
+package scheduler.model;
+
+/**
+ * The outcome of booking an appointment: the appointment, caregiver and slot it got, or why there was none.
+ */
+public class Reservation {
+
+    public enum Status {
+        RESERVED,
+        ALREADY_BOOKED,
+        NO_CAREGIVER,
+        NO_SUCH_VACCINE,
+        OUT_OF_DOSES
+    }
+
+    private final Status status;
+    private final long appointmentID;
+    private final String caregiver;
+    private final int slot;
+
+    private Reservation(Status status) {
+        this.status = status;
+        this.appointmentID = -1;
+        this.caregiver = null;
+        this.slot = Slot.WHOLE_DAY;
+    }
+
+    private Reservation(long appointmentID, String caregiver, int slot) {
+        this.status = Status.RESERVED;
+        this.appointmentID = appointmentID;
+        this.caregiver = caregiver;
+        this.slot = slot;
+    }
+
+    public static Reservation reserved(long appointmentID, String caregiver, int slot) {
+        return new Reservation(appointmentID, caregiver, slot);
+    }
+
+    public static Reservation failed(Status status) {
+        return new Reservation(status);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getAppointmentID() {
+        return appointmentID;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+}
@@ -0,0 +1,82 @@
+package scheduler.model;
+
+import scheduler.util.Util;
+
+/**
+ * Free places of one caregiver in one time slot of a date. A slot is identified by the minute of the day it
+ * starts at; WHOLE_DAY is the slot of availabilities uploaded without times, which take one patient for the day.
+ */
+public class Slot {
+
+    public static final int WHOLE_DAY = -1;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    // read through lengthMinutes, which refuses lengths that do not divide a day
+    private static final int LENGTH_MINUTES = Util.intEnv("SlotMinutes", 15);
+
+    private final String caregiver;
+    private final int start;
+    private final int capacity;
+
+    public Slot(String caregiver, int start, int capacity) {
+        this.caregiver = caregiver;
+        this.start = start;
+        this.capacity = capacity;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    // minute of the day, or WHOLE_DAY
+    public int getStart() {
+        return start;
+    }
+
+    // patients the slot can still take
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // "HH:MM" to the minute of the day; throws IllegalArgumentException for anything else
+    public static int parseStart(String time) {
+        String[] parts = time.split(":");
+        if (parts.length != 2 || parts[0].isEmpty() || parts[1].length() != 2) {
+            throw new IllegalArgumentException("Not a time of day: " + time);
+        }
+        int hours;
+        int minutes;
+        try {
+            hours = Integer.parseInt(parts[0]);
+            minutes = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a time of day: " + time);
+        }
+        if (hours < 0 || minutes < 0 || minutes >= 60 || hours * 60 + minutes > MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("Not a time of day: " + time);
+        }
+        return hours * 60 + minutes;
+    }
+
+    // length of the slots upload_slots creates; throws IllegalStateException unless SlotMinutes is between 1 and
+    // 1440 and divides 1440
+    public static int lengthMinutes() {
+        if (LENGTH_MINUTES < 1 || LENGTH_MINUTES > MINUTES_PER_DAY || MINUTES_PER_DAY % LENGTH_MINUTES != 0) {
+            throw new IllegalStateException("SlotMinutes must be between 1 and " + MINUTES_PER_DAY +
+                    " and divide " + MINUTES_PER_DAY + ", not " + LENGTH_MINUTES);
+        }
+        return LENGTH_MINUTES;
+    }
+
+    public static String formatStart(int start) {
+        return start == WHOLE_DAY ? "all day" : String.format("%02d:%02d", start / 60, start % 60);
+    }
+
+    @Override
+    public String toString() {
+        return "Slot{" +
+                "caregiver='" + caregiver + '\'' +
+                ", start=" + formatStart(start) +
+                ", capacity=" + capacity +
+                '}';
+    }
+}
@@ -1,10 +1,9 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.service.WaitlistAllocator;
+import scheduler.storage.StorageManager;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
@@ -31,20 +30,10 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        StorageManager.get().vaccines().insert(this.vaccineName, this.availableDoses);
+        AvailabilityIndex.getInstance().addDoses(this.vaccineName, this.availableDoses);
+        // new doses may let waitlisted patients in
+        WaitlistAllocator.getInstance().wake();
     }
 
     // Increment the available doses
@@ -52,22 +41,11 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
+        // relative to the stored value, so concurrent updates are not lost
+        StorageManager.get().vaccines().addDoses(this.vaccineName, num);
         this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        AvailabilityIndex.getInstance().addDoses(this.vaccineName, num);
+        WaitlistAllocator.getInstance().wake();
     }
 
     // Decrement the available doses
@@ -75,21 +53,12 @@ public class Vaccine {
         if (this.availableDoses - num < 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        // only succeeds if the stored value still covers num, whatever other clients did since we read it
+        if (!StorageManager.get().vaccines().removeDoses(this.vaccineName, num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses -= num;
+        AvailabilityIndex.getInstance().addDoses(this.vaccineName, -num);
     }
 
     @Override
@@ -123,24 +92,12 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Integer doses = StorageManager.get().vaccines().getDoses(this.vaccineName);
+            if (doses == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            return new Vaccine(this);
         }
     }
 }
@@ -0,0 +1,82 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+/**
+ * A patient's request to be booked on a date as soon as a caregiver place and a dose are free. The allocator fills
+ * entries first come, first served; the outcome stays on the entry until the patient has seen it in
+ * show_appointments.
+ */
+public class WaitlistEntry {
+
+    public enum Status {
+        WAITING,
+        // booked, see getAppointmentID
+        FILLED,
+        // the patient booked the date some other way in the meantime
+        ALREADY_BOOKED,
+        NO_SUCH_VACCINE,
+        // the date passed before a place came free
+        EXPIRED
+    }
+
+    private final long waitlistID;
+    private final Date time;
+    private final String patientID;
+    private final String vaccine;
+    private final Status status;
+    private final long appointmentID;
+
+    public WaitlistEntry(long waitlistID, Date time, String patientID, String vaccine, Status status,
+                         long appointmentID) {
+        this.waitlistID = waitlistID;
+        this.time = time;
+        this.patientID = patientID;
+        this.vaccine = vaccine;
+        this.status = status;
+        this.appointmentID = appointmentID;
+    }
+
+    // the same entry with its outcome
+    public WaitlistEntry resolved(Status status, long appointmentID) {
+        return new WaitlistEntry(waitlistID, time, patientID, vaccine, status, appointmentID);
+    }
+
+    // Getters
+    public long getWaitlistID() {
+        return waitlistID;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getPatientID() {
+        return patientID;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // -1 unless FILLED
+    public long getAppointmentID() {
+        return appointmentID;
+    }
+
+    @Override
+    public String toString() {
+        return "WaitlistEntry{" +
+                "waitlistID=" + waitlistID +
+                ", time=" + time +
+                ", patientID='" + patientID + '\'' +
+                ", vaccine='" + vaccine + '\'' +
+                ", status=" + status +
+                ", appointmentID=" + appointmentID +
+                '}';
+    }
+}
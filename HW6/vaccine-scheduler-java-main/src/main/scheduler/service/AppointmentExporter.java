@@ -0,0 +1,480 @@
+package scheduler.service;
+
+import scheduler.model.Appointment;
+import scheduler.model.Slot;
+import scheduler.storage.StorageManager;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the appointments of a date range to a file for reporting, as CSV (.csv) or in a compact columnar format
+ * (.cols). Appointments are written as the storage reads them (see AppointmentDao.findAll), through a direct buffer
+ * drained to a FileChannel, so memory stays bounded by one row group whatever the number of appointments.
+ *
+ * Files are written to ExportDirectory, under a plain file name: a name with a directory in it, absolute or not, is
+ * refused, so a client (also one of the server) cannot write anywhere else. The rows go to a new temporary file next
+ * to the target, which is renamed over it once complete, so readers never see a half written export and an
+ * export that fails leaves whatever was there before.
+ *
+ * Both formats have the columns appointment_id, date, slot, patient, caregiver and vaccine, in AppointmentID order.
+ * In the CSV, slot is the start time (HH:MM) or "all day".
+ *
+ * The columnar format, all integers big endian:
+ * <pre>
+ * file      = "SCOL" version:byte(1) columns:byte(6) (name:string type:byte)* rowGroup* 0:int32 rows:int64
+ * rowGroup  = rows:int32 (length:int32 column-bytes)*          one chunk per column, in header order
+ * type 1    = per row, the zigzag varint of the difference to the previous row of the group (the first to 0);
+ *             used for appointment_id, date (days since 1970-01-01) and slot (minute of the day, -1 all day)
+ * type 2    = encoding:byte, then 0 plain: string per row, or 1 dictionary: entries:varint string* and a varint
+ *             index per row; dictionary unless the group has more distinct values than half its rows
+ * string    = length:varint UTF-8 bytes
+ * varint    = unsigned, 7 bits per byte from the lowest, the high bit set on all but the last byte
+ * </pre>
+ */
+public class AppointmentExporter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int ROW_GROUP_SIZE = 65536;
+    private static final byte[] MAGIC = "SCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final byte DELTAS = 1;
+    private static final byte STRINGS = 2;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    public enum Format {
+        CSV,
+        COLUMNAR;
+
+        // throws IllegalArgumentException for files that end in neither .csv nor .cols
+        public static Format forFile(Path file) {
+            String name = file.getFileName() == null ? "" : file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".cols")) {
+                return COLUMNAR;
+            }
+            throw new IllegalArgumentException("The export file must end in .csv or .cols!");
+        }
+    }
+
+    // the file name in ExportDirectory; throws IllegalArgumentException for anything but a plain file name
+    public static Path resolve(String name) {
+        Path file = Paths.get(name);
+        if (file.isAbsolute() || file.getNameCount() != 1 || name.equals(".") || name.equals("..")) {
+            throw new IllegalArgumentException("The export file must be a file name, without a directory!");
+        }
+        return Paths.get(Util.stringEnv("ExportDirectory", "exports")).resolve(file);
+    }
+
+    // replaces file once the export is complete; file comes from resolve
+    public Result export(Date from, Date to, Path file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Format format = Format.forFile(file);
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve("." + file.getFileName() + "." + Long.toHexString(RANDOM.nextLong())
+                + ".tmp");
+        long rows;
+        long bytes;
+        boolean done = false;
+        // created by this export, so it is the only file removed if the export fails
+        try (Output output = new Output(temporary)) {
+            RowWriter writer = format == Format.CSV ? new CsvWriter(output) : new ColumnarWriter(output);
+            try {
+                StorageManager.get().appointments().findAll(from, to, appointment -> {
+                    try {
+                        writer.write(appointment);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            rows = writer.finish();
+            bytes = output.flush();
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        return new Result(rows, bytes, System.nanoTime() - start);
+    }
+
+    private interface RowWriter {
+        void write(Appointment appointment) throws IOException;
+
+        // writes what is still buffered, returns the rows written
+        long finish() throws IOException;
+    }
+
+    private static class CsvWriter implements RowWriter {
+        private final Output output;
+        private final StringBuilder line = new StringBuilder(128);
+        private long rows = 0;
+
+        private CsvWriter(Output output) throws IOException {
+            this.output = output;
+            output.put("appointment_id,date,slot,patient,caregiver,vaccine\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void write(Appointment appointment) throws IOException {
+            line.setLength(0);
+            line.append(appointment.getAppointmentID()).append(',').append(appointment.getTime()).append(',')
+                    .append(Slot.formatStart(appointment.getSlot())).append(',');
+            appendField(appointment.getPatientID());
+            line.append(',');
+            appendField(appointment.getCaregiverID());
+            line.append(',');
+            appendField(appointment.getVaccine());
+            line.append('\n');
+            output.put(line.toString().getBytes(StandardCharsets.UTF_8));
+            rows++;
+        }
+
+        @Override
+        public long finish() {
+            return rows;
+        }
+
+        // quoted only if needed, with "" for a quote, which is what Util.splitCsvLine reads
+        private void appendField(String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+    }
+
+    private static class ColumnarWriter implements RowWriter {
+        private final Output output;
+        private final DeltaColumn ids = new DeltaColumn();
+        private final DeltaColumn dates = new DeltaColumn();
+        private final DeltaColumn slots = new DeltaColumn();
+        private final StringColumn patients = new StringColumn();
+        private final StringColumn caregivers = new StringColumn();
+        private final StringColumn vaccines = new StringColumn();
+        private int groupRows = 0;
+        private long rows = 0;
+
+        private ColumnarWriter(Output output) throws IOException {
+            this.output = output;
+            Bytes header = new Bytes(64);
+            header.put(MAGIC, MAGIC.length);
+            header.put(VERSION);
+            header.put((byte) 6);
+            for (String name : new String[]{"appointment_id", "date", "slot"}) {
+                header.putString(name);
+                header.put(DELTAS);
+            }
+            for (String name : new String[]{"patient", "caregiver", "vaccine"}) {
+                header.putString(name);
+                header.put(STRINGS);
+            }
+            output.put(header.array(), header.size());
+        }
+
+        @Override
+        public void write(Appointment appointment) throws IOException {
+            ids.add(appointment.getAppointmentID());
+            dates.add(appointment.getTime().toLocalDate().toEpochDay());
+            slots.add(appointment.getSlot());
+            patients.add(appointment.getPatientID());
+            caregivers.add(appointment.getCaregiverID());
+            vaccines.add(appointment.getVaccine());
+            groupRows++;
+            if (groupRows == ROW_GROUP_SIZE) {
+                writeGroup();
+            }
+        }
+
+        @Override
+        public long finish() throws IOException {
+            if (groupRows > 0) {
+                writeGroup();
+            }
+            output.putInt(0);
+            output.putLong(rows);
+            return rows;
+        }
+
+        private void writeGroup() throws IOException {
+            output.putInt(groupRows);
+            for (Column column : new Column[]{ids, dates, slots, patients, caregivers, vaccines}) {
+                Bytes chunk = column.encode();
+                output.putInt(chunk.size());
+                output.put(chunk.array(), chunk.size());
+                column.reset();
+            }
+            rows += groupRows;
+            groupRows = 0;
+        }
+    }
+
+    // the values of one column in the current row group
+    private interface Column {
+        // the encoded chunk, valid until reset
+        Bytes encode();
+
+        void reset();
+    }
+
+    private static class DeltaColumn implements Column {
+        private final Bytes bytes = new Bytes(ROW_GROUP_SIZE);
+        private long previous = 0;
+
+        private void add(long value) {
+            bytes.putVarLong(value - previous);
+            previous = value;
+        }
+
+        @Override
+        public Bytes encode() {
+            return bytes;
+        }
+
+        @Override
+        public void reset() {
+            bytes.clear();
+            previous = 0;
+        }
+    }
+
+    private static class StringColumn implements Column {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> entries = new ArrayList<>();
+        private final int[] rows = new int[ROW_GROUP_SIZE];
+        private final Bytes bytes = new Bytes(ROW_GROUP_SIZE);
+        private int size = 0;
+
+        private void add(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = entries.size();
+                indexes.put(value, index);
+                entries.add(value);
+            }
+            rows[size++] = index;
+        }
+
+        @Override
+        public Bytes encode() {
+            if (entries.size() > size / 2) {
+                bytes.put((byte) 0);
+                for (int i = 0; i < size; i++) {
+                    bytes.putString(entries.get(rows[i]));
+                }
+            } else {
+                bytes.put((byte) 1);
+                bytes.putVarInt(entries.size());
+                for (String entry : entries) {
+                    bytes.putString(entry);
+                }
+                for (int i = 0; i < size; i++) {
+                    bytes.putVarInt(rows[i]);
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        public void reset() {
+            indexes.clear();
+            entries.clear();
+            bytes.clear();
+            size = 0;
+        }
+    }
+
+    // a growable byte array
+    private static class Bytes {
+        private byte[] array;
+        private int size = 0;
+
+        private Bytes(int capacity) {
+            this.array = new byte[Math.max(16, capacity)];
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            array[size++] = b;
+        }
+
+        private void put(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, array, size, length);
+            size += length;
+        }
+
+        // zigzag, so that small negative numbers take few bytes as well
+        private void putVarLong(long value) {
+            putUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        // plain, for lengths, counts and indexes, which are never negative
+        private void putVarInt(int value) {
+            putUnsigned(value);
+        }
+
+        private void putUnsigned(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                array[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            array[size++] = (byte) value;
+        }
+
+        private void putString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(utf8.length);
+            put(utf8, utf8.length);
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private byte[] array() {
+            return array;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void ensure(int more) {
+            if (size + more > array.length) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, size + more));
+            }
+        }
+    }
+
+    // the file, written through a direct buffer that is drained to the channel when full
+    private static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private Output(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            put(bytes, bytes.length);
+        }
+
+        private void put(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(buffer.remaining(), length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES) {
+                drain();
+            }
+            buffer.putLong(value);
+        }
+
+        // writes the buffer out, returns the size of the file
+        private long flush() throws IOException {
+            drain();
+            return channel.size();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static class Result {
+        private final long rows;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        private Result(long rows, long bytes, long elapsedNanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        public long getRowsPerSecond() {
+            return elapsedNanos == 0 ? rows : rows * 1_000_000_000L / elapsedNanos;
+        }
+    }
+}
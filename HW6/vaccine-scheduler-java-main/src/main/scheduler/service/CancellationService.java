@@ -0,0 +1,49 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentQuery;
+import scheduler.storage.StorageManager;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Cancels appointments. Finding the appointment, checking whose it is, removing it and giving its dose and its
+ * caregiver slot back run as one transaction in the storage (see AppointmentDao.cancel), so a failure half way
+ * leaves nothing behind; this class keeps the AvailabilityIndex in step and lets the WaitlistAllocator know about
+ * the freed places.
+ */
+public class CancellationService {
+
+    // null if the user has no appointment with this id
+    public Appointment cancel(AppointmentQuery.Role role, String username, long appointmentID) throws SQLException {
+        Appointment appointment = StorageManager.get().appointments().cancel(appointmentID, role, username);
+        if (appointment != null) {
+            restored(appointment);
+            WaitlistAllocator.getInstance().wake();
+        }
+        return appointment;
+    }
+
+    // cancels all appointments of the caregiver on the date
+    public List<Appointment> cancelDay(String caregiver, Date d) throws SQLException {
+        AppointmentQuery query = new AppointmentQuery.AppointmentQueryBuilder(AppointmentQuery.Role.CAREGIVER,
+                caregiver).from(d).to(d).build();
+        List<Appointment> cancelled = StorageManager.get().appointments().cancelAll(query);
+        for (Appointment appointment : cancelled) {
+            restored(appointment);
+        }
+        if (!cancelled.isEmpty()) {
+            WaitlistAllocator.getInstance().wake();
+        }
+        return cancelled;
+    }
+
+    private static void restored(Appointment appointment) {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.addDoses(appointment.getVaccine(), 1);
+        index.addCapacity(appointment.getTime(), appointment.getCaregiverID(), appointment.getSlot(), 1);
+    }
+}
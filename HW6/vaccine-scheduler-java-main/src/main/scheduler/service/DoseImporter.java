@@ -0,0 +1,102 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.storage.StorageManager;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Adds the doses listed in a shipment manifest to Vaccines.
+ *
+ * The manifest is a CSV file whose first two columns are the vaccine name and a dose count; any further columns
+ * (lot numbers, expiry dates, ...) are ignored, as is a header line. The file is streamed line by line and only
+ * the running total per vaccine is kept, so memory depends on the number of distinct vaccines, not the file size.
+ * The totals are then applied as relative upserts in a single transaction.
+ */
+public class DoseImporter {
+
+    public Result importFile(Path file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        // sorted, so that concurrent imports lock the Vaccines rows in the same order
+        TreeMap<String, Long> totals = new TreeMap<>();
+        ImportLines lines = new ImportLines();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long number = lines.next();
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = Util.splitCsvLine(line);
+                long doses;
+                try {
+                    doses = fields.length < 2 ? -1 : Long.parseLong(fields[1].trim());
+                } catch (NumberFormatException e) {
+                    if (number == 1) {
+                        continue; // header
+                    }
+                    doses = -1;
+                }
+                String name = fields[0].trim();
+                if (name.isEmpty() || doses < 0 || doses > Integer.MAX_VALUE) {
+                    lines.reject();
+                    continue;
+                }
+                // checked after every line: a total and a line of at most an int each cannot overflow the long
+                if (totals.merge(name, doses, Long::sum) > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many doses of " + name + " in one manifest!");
+                }
+            }
+        }
+
+        Map<String, Integer> doses = new HashMap<>();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            doses.put(total.getKey(), total.getValue().intValue());
+        }
+        StorageManager.get().vaccines().addDoses(doses);
+
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        long added = 0;
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            index.addDoses(total.getKey(), total.getValue().intValue());
+            added += total.getValue();
+        }
+        if (added > 0) {
+            WaitlistAllocator.getInstance().wake();
+        }
+        return new Result(lines, totals.size(), added, System.nanoTime() - start);
+    }
+
+    public static class Result extends ImportResult {
+        private final int vaccines;
+        private final long doses;
+
+        private Result(ImportLines lines, int vaccines, long doses, long elapsedNanos) {
+            super(lines, elapsedNanos);
+            this.vaccines = vaccines;
+            this.doses = doses;
+        }
+
+        public int getVaccines() {
+            return vaccines;
+        }
+
+        public long getDoses() {
+            return doses;
+        }
+
+        public long getLinesPerSecond() {
+            return getElapsedNanos() == 0 ? getLines() : getLines() * 1_000_000_000L / getElapsedNanos();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package scheduler.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// counts the lines of an imported file, and the ones rejected with the numbers of the first few for the error message
+class ImportLines {
+
+    private static final int REMEMBERED = 10;
+
+    private long lines = 0;
+    private long rejectedCount = 0;
+    private final List<Long> rejectedLines = new ArrayList<>();
+
+    // counts a line read, returns its number
+    long next() {
+        return ++lines;
+    }
+
+    // rejects the line last counted
+    void reject() {
+        rejectedCount++;
+        if (rejectedLines.size() < REMEMBERED) {
+            rejectedLines.add(lines);
+        }
+    }
+
+    long getLines() {
+        return lines;
+    }
+
+    long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    List<Long> getRejectedLines() {
+        return Collections.unmodifiableList(rejectedLines);
+    }
+}
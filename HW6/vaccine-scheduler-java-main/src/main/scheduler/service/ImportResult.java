@@ -0,0 +1,39 @@
+package scheduler.service;
+
+import java.util.List;
+
+// what the importers report about the lines of a file
+public abstract class ImportResult {
+    private final long lines;
+    private final long rejectedCount;
+    private final List<Long> rejectedLines;
+    private final long elapsedNanos;
+
+    ImportResult(ImportLines lines, long elapsedNanos) {
+        this.lines = lines.getLines();
+        this.rejectedCount = lines.getRejectedCount();
+        this.rejectedLines = lines.getRejectedLines();
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    // line numbers of (at most the first 10) lines that could not be parsed
+    public List<Long> getRejectedLines() {
+        return rejectedLines;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
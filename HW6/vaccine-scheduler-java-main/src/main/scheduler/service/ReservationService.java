@@ -0,0 +1,33 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.model.Reservation;
+import scheduler.storage.AppointmentDao;
+import scheduler.storage.StorageManager;
+
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * Books appointments. The checks and claims run as one transaction in the storage (see AppointmentDao.reserve),
+ * so two patients racing for the last slot or the last dose can never both get it; this class allocates the id
+ * and keeps the AvailabilityIndex in step.
+ */
+public class ReservationService {
+
+    // slot is the start of the time slot to book, null for the earliest free one
+    public Reservation reserve(String patient, Date date, Integer slot, String vaccine) throws SQLException {
+        AppointmentDao appointments = StorageManager.get().appointments();
+        // allocated up front so that refilling a block of ids never happens inside the reservation transaction;
+        // an id that ends up unused just leaves a gap
+        long appointmentID = appointments.nextAppointmentID();
+
+        Reservation reservation = appointments.reserve(appointmentID, patient, date, slot, vaccine);
+        if (reservation.getStatus() == Reservation.Status.RESERVED) {
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            index.addCapacity(date, reservation.getCaregiver(), reservation.getSlot(), -1);
+            index.addDoses(vaccine, -1);
+        }
+        return reservation;
+    }
+}
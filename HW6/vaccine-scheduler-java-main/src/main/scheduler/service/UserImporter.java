@@ -0,0 +1,239 @@
+package scheduler.service;
+
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.storage.Storage;
+import scheduler.storage.StorageManager;
+import scheduler.storage.UserDao;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Creates the accounts listed in a CSV file of kind (patient or caregiver), username and password, with an optional
+ * header line.
+ *
+ * The file is streamed in batches of ImportBatchSize accounts. Each batch looks up which of its usernames are taken
+ * in one query per kind, has the passwords of the rest hashed on a fork-join pool of ImportHashThreads threads, and
+ * is inserted as one batched statement per kind. Hashing dominates, so the insert of a batch runs while the next
+ * batch is being hashed. A username listed twice, or taken by someone else between the lookup and the insert, is
+ * counted as taken.
+ */
+public class UserImporter {
+
+    private static final int BATCH_SIZE = Math.max(1, Util.intEnv("ImportBatchSize", 1000));
+    private static final int HASH_THREADS = Math.max(1, Util.intEnv("ImportHashThreads",
+            Runtime.getRuntime().availableProcessors()));
+    // accounts one fork-join task hashes without splitting further; a hash takes milliseconds, so keep it small
+    private static final int HASHES_PER_TASK = 4;
+    private static final int MAX_USERNAME_LENGTH = 255;
+
+    public Result importFile(Path file) throws IOException, SQLException {
+        long start = System.nanoTime();
+        ImportLines lines = new ImportLines();
+        Totals totals = new Totals();
+        ForkJoinPool pool = new ForkJoinPool(HASH_THREADS);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Batch batch = new Batch();
+            // hashing while the next batch is read, inserted once that one has been handed to the pool
+            Batch previous = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long number = lines.next();
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = Util.splitCsvLine(line);
+                String kind = fields[0].trim().toLowerCase();
+                boolean caregiver = kind.equals("caregiver");
+                boolean known = caregiver || kind.equals("patient");
+                if (!known && number == 1) {
+                    continue; // header
+                }
+                if (!known || fields.length < 3 || !valid(fields[1].trim(), fields[2])) {
+                    lines.reject();
+                    continue;
+                }
+                if (!batch.add(caregiver, fields[1].trim(), fields[2])) {
+                    totals.taken++;
+                }
+                if (batch.size() >= BATCH_SIZE) {
+                    hashThenInsert(pool, batch, previous, totals);
+                    previous = batch;
+                    batch = new Batch();
+                }
+            }
+            hashThenInsert(pool, batch, previous, totals);
+            hashThenInsert(pool, null, batch, totals);
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Result(lines, totals.created, totals.taken, System.nanoTime() - start);
+    }
+
+    // starts hashing the batch, then inserts the previous one; either may be null
+    private static void hashThenInsert(ForkJoinPool pool, Batch batch, Batch previous, Totals totals)
+            throws SQLException {
+        if (batch != null) {
+            totals.taken += batch.removeExisting();
+            batch.hash(pool);
+        }
+        if (previous != null) {
+            int inserted = previous.insert();
+            totals.created += inserted;
+            totals.taken += previous.size() - inserted;
+        }
+    }
+
+    private static boolean valid(String username, String password) {
+        return !username.isEmpty() && username.length() <= MAX_USERNAME_LENGTH && !password.isEmpty();
+    }
+
+    private static class Totals {
+        private long created = 0;
+        private long taken = 0;
+    }
+
+    private static class Account {
+        private final String username;
+        // dropped once hashed
+        private String password;
+        private CredentialVerifier.Credentials credentials;
+
+        private Account(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    // up to BATCH_SIZE accounts of both kinds, each username at most once per kind
+    private static class Batch {
+        private final Map<String, Account> caregivers = new LinkedHashMap<>();
+        private final Map<String, Account> patients = new LinkedHashMap<>();
+        private ForkJoinTask<Void> hashed;
+
+        // false if the username is already in the batch
+        private boolean add(boolean caregiver, String username, String password) {
+            return (caregiver ? caregivers : patients).putIfAbsent(username,
+                    new Account(username, password)) == null;
+        }
+
+        private int size() {
+            return caregivers.size() + patients.size();
+        }
+
+        private void hash(ForkJoinPool pool) {
+            List<Account> accounts = new ArrayList<>(size());
+            accounts.addAll(caregivers.values());
+            accounts.addAll(patients.values());
+            hashed = pool.submit(new HashTask(accounts, 0, accounts.size()));
+        }
+
+        // drops the accounts whose username is taken, so they are not hashed; returns how many
+        private int removeExisting() throws SQLException {
+            Storage storage = StorageManager.get();
+            return removeExisting(storage.caregivers(), caregivers) + removeExisting(storage.patients(), patients);
+        }
+
+        private static int removeExisting(UserDao users, Map<String, Account> accounts) throws SQLException {
+            if (accounts.isEmpty()) {
+                return 0;
+            }
+            Set<String> existing = users.existing(accounts.keySet());
+            accounts.keySet().removeAll(existing);
+            return existing.size();
+        }
+
+        // waits for the hashes, then returns how many accounts were created
+        private int insert() throws SQLException {
+            try {
+                hashed.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while hashing passwords", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not hash passwords", e.getCause());
+            }
+            Storage storage = StorageManager.get();
+            return insert(storage.caregivers(), caregivers) + insert(storage.patients(), patients);
+        }
+
+        private static int insert(UserDao users, Map<String, Account> accounts) throws SQLException {
+            Map<String, CredentialVerifier.Credentials> credentials = new LinkedHashMap<>();
+            for (Account account : accounts.values()) {
+                credentials.put(account.username, account.credentials);
+            }
+            return users.insertAll(credentials);
+        }
+    }
+
+    // hashes the passwords of accounts[from, to), splitting the range over the pool
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Account> accounts;
+        private final int from;
+        private final int to;
+
+        private HashTask(List<Account> accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASHES_PER_TASK) {
+                HashParams params = HashParams.current();
+                for (int i = from; i < to; i++) {
+                    Account account = accounts.get(i);
+                    byte[] salt = Util.generateSalt();
+                    account.credentials = new CredentialVerifier.Credentials(salt,
+                            params.hash(account.password, salt), params);
+                    account.password = null;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(accounts, from, middle), new HashTask(accounts, middle, to));
+        }
+    }
+
+    public static class Result extends ImportResult {
+        private final long created;
+        private final long taken;
+
+        private Result(ImportLines lines, long created, long taken, long elapsedNanos) {
+            super(lines, elapsedNanos);
+            this.created = created;
+            this.taken = taken;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        // accounts skipped because the username was taken or listed before
+        public long getTaken() {
+            return taken;
+        }
+
+        public long getAccountsPerSecond() {
+            return getElapsedNanos() == 0 ? created : created * 1_000_000_000L / getElapsedNanos();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package scheduler.service;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.AppointmentQuery;
+import scheduler.storage.StorageManager;
+import scheduler.storage.WaitlistDao;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Books waitlisted patients in the background. Everything that adds places or doses (the uploads, add_doses,
+ * import_doses, cancellations) calls wake, and so does joining the waitlist; the allocator then goes through the
+ * waiting entries oldest first, WaitlistBatchSize at a time, and reserves for each one like reserve does.
+ *
+ * Within a pass a date found full or a vaccine found out of doses is not tried again, so a long queue behind a
+ * full date costs one failed reservation instead of one per entry. Wakes that arrive while a pass runs start one
+ * more pass after it, so nothing added in the meantime is missed.
+ *
+ * Each process runs its own allocator. Two of them reaching the same entry cannot both book it: the second
+ * reservation runs into the patient's new appointment, and only the first outcome recorded for an entry counts.
+ */
+public class WaitlistAllocator {
+
+    private static final WaitlistAllocator instance = new WaitlistAllocator(Util.intEnv("WaitlistBatchSize", 100));
+    // how long stop waits for a running pass
+    private static final int STOP_TIMEOUT_SECONDS = 30;
+
+    private final int batchSize;
+    private final ReservationService reservationService = new ReservationService();
+    // set by wake until the requested pass starts
+    private final AtomicBoolean requested = new AtomicBoolean(false);
+    // guarded by this
+    private ExecutorService executor = null;
+
+    public WaitlistAllocator(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public static WaitlistAllocator getInstance() {
+        return instance;
+    }
+
+    // asks for a pass over the waitlist and returns at once; any number of wakes before the pass starts make one
+    public void wake() {
+        if (requested.compareAndSet(false, true)) {
+            executor().execute(this::run);
+        }
+    }
+
+    // lets a requested or running pass finish, so that it does not outlive the storage
+    public void stop() {
+        ExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.shutdown();
+        try {
+            stopping.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "waitlist-allocator");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    private void run() {
+        requested.set(false);
+        long start = System.nanoTime();
+        try {
+            allocate();
+        } catch (SQLException | RuntimeException e) {
+            // the entries stay waiting for the next wake
+            Metrics.error("waitlist.pass");
+            e.printStackTrace();
+        } finally {
+            Metrics.record("waitlist.pass", System.nanoTime() - start);
+        }
+    }
+
+    // one pass over the waiting entries; returns how many were booked
+    public int allocate() throws SQLException {
+        WaitlistDao waitlist = StorageManager.get().waitlist();
+        Date today = Date.valueOf(LocalDate.now());
+        Set<Date> full = new HashSet<>();
+        Set<String> outOfDoses = new HashSet<>();
+        int filled = 0;
+        long after = 0;
+        List<WaitlistEntry> batch;
+        do {
+            batch = waitlist.waiting(after, batchSize);
+            for (WaitlistEntry entry : batch) {
+                after = entry.getWaitlistID();
+                if (entry.getTime().before(today)) {
+                    waitlist.resolve(entry.getWaitlistID(), WaitlistEntry.Status.EXPIRED, -1);
+                    continue;
+                }
+                if (full.contains(entry.getTime()) || outOfDoses.contains(entry.getVaccine())) {
+                    continue;
+                }
+                Reservation reservation = reservationService.reserve(entry.getPatientID(),
+                        entry.getTime(), null, entry.getVaccine());
+                switch (reservation.getStatus()) {
+                    case RESERVED:
+                        waitlist.resolve(entry.getWaitlistID(), WaitlistEntry.Status.FILLED,
+                                reservation.getAppointmentID());
+                        Metrics.increment("waitlist.filled");
+                        filled++;
+                        break;
+                    case ALREADY_BOOKED:
+                        // booked meanwhile, by reserve or by another allocator
+                        waitlist.resolve(entry.getWaitlistID(), WaitlistEntry.Status.ALREADY_BOOKED,
+                                appointmentOn(entry.getPatientID(), entry.getTime()));
+                        break;
+                    case NO_SUCH_VACCINE:
+                        waitlist.resolve(entry.getWaitlistID(), WaitlistEntry.Status.NO_SUCH_VACCINE, -1);
+                        break;
+                    case NO_CAREGIVER:
+                        full.add(entry.getTime());
+                        break;
+                    case OUT_OF_DOSES:
+                        outOfDoses.add(entry.getVaccine());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } while (batch.size() == batchSize);
+        return filled;
+    }
+
+    // the id of the patient's appointment on the date, -1 if there is none (any more)
+    private static long appointmentOn(String patient, Date d) throws SQLException {
+        List<Appointment> found = new ArrayList<>(1);
+        StorageManager.get().appointments().find(new AppointmentQuery.AppointmentQueryBuilder(
+                AppointmentQuery.Role.PATIENT, patient).from(d).to(d).limit(1).build(), found::add);
+        return found.isEmpty() ? -1 : found.get(0).getAppointmentID();
+    }
+}
@@ -0,0 +1,44 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Booked appointments, and the reservation and cancellation transactions that create and remove them.
+ */
+public interface AppointmentDao {
+
+    // unique and increasing, but not necessarily gap free
+    long nextAppointmentID() throws SQLException;
+
+    // in one transaction: checks the patient is free on the date, takes a place in the given slot (the earliest
+    // free one if slot is null) and a dose, and books the appointment; nothing is changed unless the result is
+    // RESERVED
+    Reservation reserve(long appointmentID, String patient, Date d, Integer slot, String vaccine)
+            throws SQLException;
+
+    // null if there is no such appointment
+    Appointment get(long appointmentID) throws SQLException;
+
+    boolean existsForCaregiver(Date d, String caregiver) throws SQLException;
+
+    // passes the selected appointments to consumer in (Time, AppointmentID) order, as they are read
+    void find(AppointmentQuery query, Consumer<Appointment> consumer) throws SQLException;
+
+    // passes every appointment from..to (inclusive) to consumer in AppointmentID order, as they are read, for exports
+    // of any size
+    void findAll(Date from, Date to, Consumer<Appointment> consumer) throws SQLException;
+
+    // in one transaction: removes the appointment if it belongs to username in the given role, and gives its dose
+    // back to the vaccine and its place back to the caregiver's slot; null if the user has no such appointment
+    Appointment cancel(long appointmentID, AppointmentQuery.Role role, String username) throws SQLException;
+
+    // like cancel, for all appointments of the query's user between its from and to dates in one transaction;
+    // returns the cancelled appointments in (Time, AppointmentID) order
+    List<Appointment> cancelAll(AppointmentQuery query) throws SQLException;
+}
@@ -0,0 +1,106 @@
+package scheduler.storage;
+
+import java.sql.Date;
+
+/**
+ * Selects the appointments of one caregiver or patient, optionally within a date range and after a given
+ * appointment, in (Time, AppointmentID) order. The after position makes paging a keyset seek rather than an
+ * offset, so every page costs the same however much history there is.
+ */
+public class AppointmentQuery {
+
+    public enum Role {
+        CAREGIVER,
+        PATIENT
+    }
+
+    private final Role role;
+    private final String username;
+    private final Date from;
+    private final Date to;
+    private final Date afterTime;
+    private final long afterAppointmentID;
+    private final int limit;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.role = builder.role;
+        this.username = builder.username;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.afterTime = builder.afterTime;
+        this.afterAppointmentID = builder.afterAppointmentID;
+        this.limit = builder.limit;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    // null for no lower bound
+    public Date getFrom() {
+        return from;
+    }
+
+    // null for no upper bound, inclusive otherwise
+    public Date getTo() {
+        return to;
+    }
+
+    // null to start at the beginning
+    public Date getAfterTime() {
+        return afterTime;
+    }
+
+    public long getAfterAppointmentID() {
+        return afterAppointmentID;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public static class AppointmentQueryBuilder {
+        private final Role role;
+        private final String username;
+        private Date from = null;
+        private Date to = null;
+        private Date afterTime = null;
+        private long afterAppointmentID = 0;
+        private int limit = Integer.MAX_VALUE;
+
+        public AppointmentQueryBuilder(Role role, String username) {
+            this.role = role;
+            this.username = username;
+        }
+
+        public AppointmentQueryBuilder from(Date from) {
+            this.from = from;
+            return this;
+        }
+
+        public AppointmentQueryBuilder to(Date to) {
+            this.to = to;
+            return this;
+        }
+
+        // continue after the appointment with this time and id
+        public AppointmentQueryBuilder after(Date time, long appointmentID) {
+            this.afterTime = time;
+            this.afterAppointmentID = appointmentID;
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            return new AppointmentQuery(this);
+        }
+    }
+}
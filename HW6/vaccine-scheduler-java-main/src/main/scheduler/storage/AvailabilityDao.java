@@ -0,0 +1,39 @@
+package scheduler.storage;
+
+import scheduler.model.DayCapacity;
+import scheduler.model.Slot;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+
+/**
+ * The time slots caregivers are available in, each with the number of patients it can still take. Availabilities
+ * without times are the single WHOLE_DAY slot of a date with a capacity of one.
+ */
+public interface AvailabilityDao {
+
+    // whether the caregiver uploaded availability for the date, even if it is all taken by now
+    boolean exists(Date d, String caregiver) throws SQLException;
+
+    // caregivers with at least one free place on the date
+    SortedSet<String> getCaregivers(Date d) throws SQLException;
+
+    // the slots with free places on the date, by caregiver and start
+    List<Slot> getSlots(Date d) throws SQLException;
+
+    // per date from..to (inclusive) that has availability or appointments, in date order
+    List<DayCapacity> getCapacity(Date from, Date to) throws SQLException;
+
+    void add(Date d, String caregiver) throws SQLException;
+
+    // adds every date the caregiver is neither available nor booked on yet, all or nothing;
+    // returns the dates that were actually added
+    List<Date> addAll(String caregiver, Collection<Date> dates) throws SQLException;
+
+    // adds the slots starting at starts, each taking capacity patients, all or nothing; returns false and adds
+    // nothing if the caregiver is already available or booked on the date
+    boolean addSlots(Date d, String caregiver, Collection<Integer> starts, int capacity) throws SQLException;
+}
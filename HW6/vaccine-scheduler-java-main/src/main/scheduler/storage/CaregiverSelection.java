@@ -0,0 +1,28 @@
+package scheduler.storage;
+
+import scheduler.util.Util;
+
+/**
+ * How reserve picks among the caregivers with a free place on a date, set with CaregiverSelection. Whatever the
+ * strategy, places other reservations are claiming at the moment are skipped rather than waited for.
+ */
+public enum CaregiverSelection {
+    // the caregiver with the fewest appointments on the date, by the per-date load counter, earliest slot first
+    LEAST_BOOKED,
+    // the caregivers of a date in turn, in name order
+    ROUND_ROBIN,
+    // a free place picked at random
+    RANDOM,
+    // the earliest free slot, ties going to the first caregiver by name; what reserve did before strategies
+    EARLIEST;
+
+    public static CaregiverSelection fromEnv() {
+        String name = Util.stringEnv("CaregiverSelection", "least_booked");
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unknown CaregiverSelection " + name +
+                    ", use least_booked, round_robin, random or earliest");
+        }
+    }
+}
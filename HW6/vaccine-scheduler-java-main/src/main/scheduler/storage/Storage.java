@@ -0,0 +1,24 @@
+package scheduler.storage;
+
+/**
+ * A place to keep the scheduler's tables. StorageManager picks the implementation from the SchedulerStorage
+ * setting: "jdbc" (the default) talks to SQL Server through ConnectionManager, "memory" keeps everything in this
+ * process and persists it to a write-ahead log.
+ */
+public interface Storage {
+
+    UserDao caregivers();
+
+    UserDao patients();
+
+    VaccineDao vaccines();
+
+    AvailabilityDao availabilities();
+
+    AppointmentDao appointments();
+
+    WaitlistDao waitlist();
+
+    // releases connections, files etc.; called once when the application exits
+    void close();
+}
@@ -0,0 +1,45 @@
+package scheduler.storage;
+
+import scheduler.storage.jdbc.JdbcStorage;
+import scheduler.storage.memory.MemoryStorage;
+import scheduler.util.Util;
+
+import java.nio.file.Paths;
+
+/**
+ * Holds the Storage the application runs on, created on first use from the SchedulerStorage setting.
+ */
+public class StorageManager {
+
+    private static final String storageType = Util.stringEnv("SchedulerStorage", "jdbc");
+    private static final String dataFile = Util.stringEnv("SchedulerDataFile", "scheduler.wal");
+    private static final boolean syncWrites = Util.intEnv("SchedulerSyncWrites", 1) != 0;
+
+    private static Storage storage = null;
+
+    public static synchronized Storage get() {
+        if (storage == null) {
+            if (storageType.equals("jdbc")) {
+                storage = new JdbcStorage();
+            } else if (storageType.equals("memory")) {
+                storage = MemoryStorage.open(dataFile.equals("none") ? null : Paths.get(dataFile), syncWrites);
+            } else {
+                throw new IllegalStateException("Unknown SchedulerStorage " + storageType + ", use jdbc or memory");
+            }
+        }
+        return storage;
+    }
+
+    // replaces the storage for the rest of the process, e.g. with a fresh one for benchmarks
+    public static synchronized void use(Storage replacement) {
+        shutdown();
+        storage = replacement;
+    }
+
+    public static synchronized void shutdown() {
+        if (storage != null) {
+            storage.close();
+            storage = null;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package scheduler.storage;
+
+import scheduler.auth.CredentialVerifier;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accounts of one kind, caregivers or patients.
+ */
+public interface UserDao {
+
+    boolean exists(String username) throws SQLException;
+
+    // the given usernames that are taken, looked up together; as given, whatever the case of the taken name
+    Set<String> existing(Collection<String> usernames) throws SQLException;
+
+    // fails with an SQLException if the username is taken
+    void insert(String username, CredentialVerifier.Credentials credentials) throws SQLException;
+
+    // inserts the accounts in one transaction, skipping usernames taken in the meantime; returns how many it inserted
+    int insertAll(Map<String, CredentialVerifier.Credentials> accounts) throws SQLException;
+
+    // null if there is no such user
+    CredentialVerifier.Credentials getCredentials(String username) throws SQLException;
+
+    void updateCredentials(String username, CredentialVerifier.Credentials credentials) throws SQLException;
+}
@@ -0,0 +1,27 @@
+package scheduler.storage;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Doses left per vaccine. All changes are relative to the stored value, so concurrent updates are not lost.
+ */
+public interface VaccineDao {
+
+    // null if there is no such vaccine
+    Integer getDoses(String vaccine) throws SQLException;
+
+    SortedMap<String, Integer> getAllDoses() throws SQLException;
+
+    // fails with an SQLException if the vaccine already exists
+    void insert(String vaccine, int doses) throws SQLException;
+
+    void addDoses(String vaccine, int doses) throws SQLException;
+
+    // adds to existing vaccines and creates missing ones, all or nothing
+    void addDoses(Map<String, Integer> doses) throws SQLException;
+
+    // returns false, and changes nothing, if fewer than doses are left
+    boolean removeDoses(String vaccine, int doses) throws SQLException;
+}
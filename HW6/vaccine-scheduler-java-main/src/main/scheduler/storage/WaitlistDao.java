@@ -0,0 +1,29 @@
+package scheduler.storage;
+
+import scheduler.model.WaitlistEntry;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Patients waiting for a place on a date, first come first served in WaitlistID order. A patient waits at most
+ * once per date.
+ */
+public interface WaitlistDao {
+
+    // null if the patient is already waiting for the date
+    WaitlistEntry add(String patient, Date d, String vaccine) throws SQLException;
+
+    // up to limit waiting entries with an id above afterID, oldest first
+    List<WaitlistEntry> waiting(long afterID, int limit) throws SQLException;
+
+    // records the outcome of an entry; false if it was not waiting any more
+    boolean resolve(long waitlistID, WaitlistEntry.Status status, long appointmentID) throws SQLException;
+
+    // all entries of the patient, oldest first
+    List<WaitlistEntry> forPatient(String patient) throws SQLException;
+
+    // removes the patient's resolved entries up to upToID, once the patient has seen them
+    void acknowledge(String patient, long upToID) throws SQLException;
+}
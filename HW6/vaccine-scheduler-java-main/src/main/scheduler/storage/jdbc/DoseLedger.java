@@ -0,0 +1,331 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Hands out doses from leases instead of taking each one from its Vaccines row, so that reservations for a popular
+ * vaccine stop queueing on that one row lock (DoseLedger=1).
+ *
+ * A lease moves up to DoseLeaseSize doses from Vaccines into a DoseLeases row of this process in one short
+ * transaction, and tops it up once it is used up. Reservations take doses from striped in-memory counters of the
+ * lease, and record each one as a DoseUses row in their own transaction (see use). Those rows are only inserted,
+ * each with a key of its own, and the lease row is only read under a shared lock, so reservations do not wait for
+ * each other. A flusher moves the uses into DoseLeases.Remaining every DoseFlushMillis, in one short transaction per
+ * lease that renews it as well and holds off reservations of that vaccine for its duration. On close the unused rest
+ * goes back to Vaccines.
+ *
+ * Leases not renewed for DoseLeaseTimeoutSeconds belong to a process that died; any process returns them when it
+ * starts and on every flush, less the uses recorded since the last flush, so doses that were booked are never
+ * returned. A lease returned while this process was still alive is lost: the next take leases anew, and doses of
+ * the lost lease are neither recorded nor given back.
+ *
+ * Doses one process holds cannot be booked by another until they are used or returned.
+ */
+class DoseLedger {
+
+    // AtomicIntegerArray slots between two stripes, so that stripes do not share a cache line
+    private static final int PADDING = 16;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    private final int leaseSize;
+    private final int timeoutSeconds;
+    // only vaccines this process holds a lease of, or is leasing, so no more entries than there are vaccines
+    private final ConcurrentHashMap<String, Stock> stocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean closed = false;
+
+    DoseLedger(int leaseSize, int flushMillis, int timeoutSeconds) {
+        this.leaseSize = leaseSize;
+        this.timeoutSeconds = timeoutSeconds;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-ledger-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // takes one dose, leasing more when this process has none left; returns the lease it came from, to be passed
+    // to use or giveBack, or null if Vaccines has none either
+    String take(String vaccine) throws SQLException {
+        int home = stripe();
+        Stock stock = stocks.get(vaccine);
+        if (stock != null) {
+            Lease lease = stock.lease;
+            if (lease != null && lease.take(home)) {
+                return lease.owner;
+            }
+        }
+        stock = stocks.computeIfAbsent(vaccine, k -> new Stock());
+        // one lease at a time per vaccine; whoever waited here may find the stripes refilled
+        synchronized (stock) {
+            if (stocks.get(vaccine) != stock) {
+                // removed while this thread was waiting for it
+                return take(vaccine);
+            }
+            Lease lease = stock.lease;
+            if (lease != null && lease.take(home)) {
+                return lease.owner;
+            }
+            if (closed) {
+                return null;
+            }
+            // a used up lease is topped up; only a lost one is replaced, so that doses taken from it before it was
+            // lost can never be recorded against or given back to the new one
+            int leased = lease == null ? -1 : lease(lease.owner, vaccine, true);
+            if (leased < 0) {
+                if (lease != null) {
+                    Metrics.increment("ledger.lost");
+                }
+                lease = new Lease();
+                leased = lease(lease.owner, vaccine, false);
+            }
+            if (leased == 0) {
+                if (!lease.created) {
+                    // nothing to renew or return, and names of vaccines that do not exist must not pile up
+                    stock.lease = null;
+                    stocks.remove(vaccine, stock);
+                }
+                return null;
+            }
+            lease.created = true;
+            lease.put(home, leased - 1);
+            stock.lease = lease;
+            return lease.owner;
+        }
+    }
+
+    // records the dose taken from lease for the appointment in the transaction of con; false if the lease was lost
+    boolean use(Connection con, String vaccine, String lease, long appointmentID) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(Query.USE_LEASED_DOSE.getSql())) {
+            statement.setLong(1, appointmentID);
+            statement.setString(2, lease);
+            statement.setString(3, vaccine);
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    // undoes a take whose reservation did not go through; a dose of a lost lease is not ours to give back
+    void giveBack(String vaccine, String lease) {
+        Stock stock = stocks.get(vaccine);
+        Lease current = stock == null ? null : stock.lease;
+        if (current != null && current.owner.equals(lease)) {
+            current.put(stripe(), 1);
+        }
+    }
+
+    // forgets the lease after it was found given back, so that the next take leases anew
+    void lost(String vaccine, String lease) {
+        Stock stock = stocks.get(vaccine);
+        if (stock == null) {
+            return;
+        }
+        synchronized (stock) {
+            if (stock.lease != null && stock.lease.owner.equals(lease)) {
+                Metrics.increment("ledger.lost");
+                stock.lease = null;
+            }
+        }
+    }
+
+    // returns the doses this process still holds to Vaccines, less the uses recorded against its leases
+    void close() {
+        closed = true;
+        flusher.shutdownNow();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+            for (Stock stock : stocks.values()) {
+                Lease lease = stock.lease;
+                if (lease != null) {
+                    release(Query.RELEASE_LEASES.format("Owner = ?"), lease.owner);
+                }
+            }
+        } catch (SQLException e) {
+            // the leases are returned as stale by the next process that starts
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // gives back the leases of processes that stopped renewing them; returns the doses given back
+    static int reclaimStale(int timeoutSeconds) throws SQLException {
+        return release(Query.RELEASE_LEASES.format("RenewedAt < DATEADD(second, -?, SYSUTCDATETIME())"),
+                timeoutSeconds);
+    }
+
+    // moves doses into the lease, a new one unless topUp; -1 if the lease to top up was given back
+    private int lease(String owner, String vaccine, boolean topUp) throws SQLException {
+        long start = System.nanoTime();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            int leased = 0;
+            try (PreparedStatement statement = con.prepareStatement(Query.LEASE_DOSES.getSql())) {
+                statement.setInt(1, leaseSize);
+                statement.setInt(2, leaseSize);
+                statement.setString(3, vaccine);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        leased = resultSet.getInt(1);
+                    }
+                }
+            }
+            if (leased > 0 && topUp) {
+                try (PreparedStatement statement = con.prepareStatement(Query.TOP_UP_LEASE.getSql())) {
+                    statement.setInt(1, leased);
+                    statement.setString(2, owner);
+                    statement.setString(3, vaccine);
+                    if (statement.executeUpdate() == 0) {
+                        con.rollback();
+                        return -1;
+                    }
+                }
+            } else if (leased > 0) {
+                try (PreparedStatement statement = con.prepareStatement(Query.INSERT_LEASE.getSql())) {
+                    statement.setString(1, owner);
+                    statement.setString(2, vaccine);
+                    statement.setInt(3, leased);
+                    statement.executeUpdate();
+                }
+            }
+            con.commit();
+            return leased;
+        } catch (SQLException e) {
+            con.rollback();
+            Metrics.error("ledger.lease");
+            throw e;
+        } finally {
+            cm.closeConnection();
+            Metrics.record("ledger.lease", System.nanoTime() - start);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+            reclaimStale(timeoutSeconds);
+        } catch (SQLException e) {
+            // the uses stay recorded and go out with the next flush; until then the leases only age
+            Metrics.error("ledger.flush");
+            e.printStackTrace();
+        }
+    }
+
+    // moves the uses recorded against every lease this process holds into the lease, renewing it
+    private void flush() throws SQLException {
+        List<String> vaccines = new ArrayList<>();
+        List<String> leases = new ArrayList<>();
+        stocks.forEach((vaccine, stock) -> {
+            Lease lease = stock.lease;
+            if (lease != null) {
+                vaccines.add(vaccine);
+                leases.add(lease.owner);
+            }
+        });
+        if (vaccines.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.FLUSH_LEASE.getSql())) {
+            con.setAutoCommit(false);
+            // a transaction per lease, so that reservations of one vaccine never wait for the flush of another
+            for (int i = 0; i < vaccines.size(); i++) {
+                for (int parameter = 1; parameter <= 6; parameter += 2) {
+                    statement.setString(parameter, leases.get(i));
+                    statement.setString(parameter + 1, vaccines.get(i));
+                }
+                int renewed;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    renewed = resultSet.getInt(1);
+                }
+                con.commit();
+                if (renewed == 0) {
+                    // renewed too late and returned by another process: what is left here is not ours any more
+                    lost(vaccines.get(i), leases.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+            Metrics.record("ledger.flush", System.nanoTime() - start);
+        }
+    }
+
+    private static int release(String sql, Object parameter) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            con.setAutoCommit(false);
+            statement.setObject(1, parameter);
+            int released;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                released = resultSet.getInt(1);
+            }
+            con.commit();
+            return released;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+    }
+
+    // the lease of one vaccine this process holds, if any; replaced under the lock of the stock
+    private static class Stock {
+        private volatile Lease lease = null;
+    }
+
+    // one DoseLeases row, with an owner of its own, and the doses of it not taken yet
+    private static class Lease {
+        private final String owner = UUID.randomUUID().toString();
+        private final AtomicIntegerArray stripes = new AtomicIntegerArray(STRIPES * PADDING);
+        // whether its DoseLeases row was inserted; set under the lock of the stock
+        private boolean created = false;
+
+        // takes from the home stripe, or from any other that has doses
+        private boolean take(int home) {
+            for (int i = 0; i < STRIPES; i++) {
+                int index = ((home + i) & (STRIPES - 1)) * PADDING;
+                int doses = stripes.get(index);
+                while (doses > 0) {
+                    if (stripes.compareAndSet(index, doses, doses - 1)) {
+                        return true;
+                    }
+                    doses = stripes.get(index);
+                }
+            }
+            return false;
+        }
+
+        private void put(int home, int doses) {
+            stripes.addAndGet(home * PADDING, doses);
+        }
+    }
+}
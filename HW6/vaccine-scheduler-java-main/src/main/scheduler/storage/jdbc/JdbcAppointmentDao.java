@@ -0,0 +1,414 @@
+package scheduler.storage.jdbc;
+
+import com.microsoft.sqlserver.jdbc.SQLServerResultSet;
+import scheduler.db.ConnectionManager;
+import scheduler.db.SequenceAllocator;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.Reservation;
+import scheduler.model.Reservation.Status;
+import scheduler.storage.AppointmentDao;
+import scheduler.storage.AppointmentQuery;
+import scheduler.storage.CaregiverSelection;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The place in a caregiver's slot and the dose are claimed with conditional writes whose row counts tell us
+ * whether the claim succeeded, so two patients racing for the last place or the last dose can never both get it.
+ * Locks are always taken in the same order (Availabilities, Vaccines or DoseLeases and DoseUses, Appointments,
+ * CaregiverLoads) to keep concurrent reservations deadlock free.
+ *
+ * Which caregiver gets the patient is up to the CaregiverSelection strategy, an ORDER BY of the claim. The
+ * least_booked order reads CaregiverLoads without locks: the counts only steer the choice, and a reservation
+ * should never wait on the counter of another one that is still running.
+ *
+ * With a DoseLedger the dose is taken from the ledger before the transaction and recorded as a DoseUses row in
+ * it, in place of the update of the Vaccines row, which is then not locked at all; if the reservation does not go
+ * through it is put back. A lease another process returned in the meantime is leased anew and the reservation
+ * tried once more.
+ * A patient booking the same date twice concurrently is stopped by the unique (PatientID, Time) index.
+ *
+ * Cancellations run as one batch: the appointments are read with update locks into a table variable, then the
+ * availabilities and doses are restored from it set based and the appointments deleted, in the lock order of a
+ * reservation. However many appointments are cancelled the rows are read once and the work is a single round trip
+ * and a single transaction. The appointment rows are locked before the rest, but a reservation only waits on them
+ * when it inserts the (PatientID, Time) key of an appointment being cancelled; if that rare race deadlocks, the
+ * cancellation SQL Server picks as the victim is run again.
+ */
+class JdbcAppointmentDao implements AppointmentDao {
+
+    // unique index and unique constraint violations
+    private static final int DUPLICATE_KEY = 2601;
+    private static final int UNIQUE_CONSTRAINT = 2627;
+    private static final int DEADLOCK_VICTIM = 1205;
+    // times a cancellation chosen as a deadlock victim is run
+    private static final int CANCEL_ATTEMPTS = 3;
+    // rows the driver fetches per round trip when streaming a query
+    private static final int FETCH_SIZE = 500;
+    // rows per round trip of the server cursor findAll reads exports through
+    private static final int EXPORT_FETCH_SIZE = Math.max(1, Util.intEnv("ExportFetchSize", 10000));
+
+    private final CaregiverSelection selection;
+    // null unless DoseLedger is on
+    private final DoseLedger ledger;
+    // the caregiver round_robin gave the last place on a date to; per process, so several processes each keep
+    // their own turn
+    private final ConcurrentHashMap<Date, String> lastCaregivers = new ConcurrentHashMap<>();
+
+    // ids come from the AppointmentIDSeq sequence, fetched AppointmentIDBlockSize at a time
+    private final SequenceAllocator appointmentIDs =
+            new SequenceAllocator("AppointmentIDSeq", Util.intEnv("AppointmentIDBlockSize", 100));
+
+    JdbcAppointmentDao(CaregiverSelection selection, DoseLedger ledger) {
+        this.selection = selection;
+        this.ledger = ledger;
+    }
+
+    @Override
+    public long nextAppointmentID() throws SQLException {
+        return appointmentIDs.nextId();
+    }
+
+    @Override
+    public Reservation reserve(long appointmentID, String patient, Date d, Integer slot, String vaccine)
+            throws SQLException {
+        Reservation reservation = reserveOnce(appointmentID, patient, d, slot, vaccine);
+        if (reservation == null) {
+            reservation = reserveOnce(appointmentID, patient, d, slot, vaccine);
+        }
+        if (reservation == null) {
+            throw new SQLException("The dose lease of " + vaccine + " was lost twice in a row");
+        }
+        return reservation;
+    }
+
+    // null if the dose lease was lost, see reserve(Connection, ...)
+    private Reservation reserveOnce(long appointmentID, String patient, Date d, Integer slot, String vaccine)
+            throws SQLException {
+        // taken before a connection is held, since running out may lease more doses on a connection of its own;
+        // so without doses the patient hears that first, even if the date is full as well
+        String lease = ledger == null ? null : ledger.take(vaccine);
+        if (ledger != null && lease == null) {
+            return Reservation.failed(vaccineExists(vaccine) ? Status.OUT_OF_DOSES : Status.NO_SUCH_VACCINE);
+        }
+        boolean reserved = false;
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            Reservation reservation = reserve(con, appointmentID, patient, d, slot, vaccine, lease);
+            if (reservation == null) {
+                con.rollback();
+                ledger.lost(vaccine, lease);
+            } else if (reservation.getStatus() == Status.RESERVED) {
+                con.commit();
+                reserved = true;
+            } else {
+                con.rollback();
+            }
+            return reservation;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+            if (ledger != null && !reserved) {
+                ledger.giveBack(vaccine, lease);
+            }
+        }
+    }
+
+    // lease is the one the dose was taken from, null without a ledger; null if that lease was given back since
+    private Reservation reserve(Connection con, long appointmentID, String patient, Date d, Integer slot,
+                                String vaccine, String lease) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(Query.CHECK_PATIENT_DATE.getSql())) {
+            statement.setString(1, patient);
+            statement.setDate(2, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return Reservation.failed(Status.ALREADY_BOOKED);
+                }
+            }
+        }
+
+        String caregiver;
+        int claimed;
+        Query claim = slot == null ? Query.CLAIM_SLOT : Query.CLAIM_SLOT_AT;
+        try (PreparedStatement statement = con.prepareStatement(claim.format(selectionOrder()))) {
+            int parameter = 1;
+            statement.setDate(parameter++, d);
+            if (slot != null) {
+                statement.setInt(parameter++, slot);
+            }
+            if (selection == CaregiverSelection.ROUND_ROBIN) {
+                statement.setString(parameter, lastCaregivers.getOrDefault(d, ""));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Reservation.failed(Status.NO_CAREGIVER);
+                }
+                caregiver = resultSet.getString(1);
+                claimed = resultSet.getInt(2);
+            }
+        }
+
+        if (ledger != null) {
+            if (!ledger.use(con, vaccine, lease, appointmentID)) {
+                return null;
+            }
+        } else {
+            try (PreparedStatement statement = con.prepareStatement(Query.TAKE_DOSE.getSql())) {
+                statement.setString(1, vaccine);
+                if (statement.executeUpdate() == 0) {
+                    return Reservation.failed(vaccineExists(con, vaccine)
+                            ? Status.OUT_OF_DOSES : Status.NO_SUCH_VACCINE);
+                }
+            }
+        }
+
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_APPOINTMENT.getSql())) {
+            statement.setLong(1, appointmentID);
+            statement.setDate(2, d);
+            statement.setString(3, patient);
+            statement.setString(4, caregiver);
+            statement.setString(5, vaccine);
+            statement.setInt(6, claimed);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY || e.getErrorCode() == UNIQUE_CONSTRAINT) {
+                return Reservation.failed(Status.ALREADY_BOOKED);
+            }
+            throw e;
+        }
+
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_LOAD.getSql())) {
+            statement.setDate(1, d);
+            statement.setString(2, caregiver);
+            statement.executeUpdate();
+        }
+        if (selection == CaregiverSelection.ROUND_ROBIN) {
+            lastCaregivers.put(d, caregiver);
+        }
+        return Reservation.reserved(appointmentID, caregiver, claimed);
+    }
+
+    // the ORDER BY of the claim, over the Availabilities row a
+    private String selectionOrder() {
+        switch (selection) {
+            case LEAST_BOOKED:
+                return "ISNULL((SELECT l.Booked FROM CaregiverLoads l WITH (NOLOCK) " +
+                        "WHERE l.Time = a.Time AND l.Username = a.Username), 0), a.Slot, a.Username";
+            case ROUND_ROBIN:
+                // the caregivers after the last one first, then from the start of the alphabet again
+                return "CASE WHEN a.Username > ? THEN 0 ELSE 1 END, a.Username, a.Slot";
+            case RANDOM:
+                return "NEWID()";
+            default:
+                return "a.Slot, a.Username";
+        }
+    }
+
+    private boolean vaccineExists(String vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return vaccineExists(con, vaccine);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private boolean vaccineExists(Connection con, String vaccine) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(Query.VACCINE_EXISTS.getSql())) {
+            statement.setString(1, vaccine);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    @Override
+    public Appointment get(long appointmentID) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_APPOINTMENT.getSql())) {
+            statement.setLong(1, appointmentID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? toAppointment(resultSet) : null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean existsForCaregiver(Date d, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_CAREGIVER_DATE.getSql())) {
+            statement.setDate(1, d);
+            statement.setString(2, caregiver);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void find(AppointmentQuery query, Consumer<Appointment> consumer) throws SQLException {
+        // only the filters that are set end up in the statement, so each shape seeks on the (user, Time,
+        // AppointmentID) index instead of evaluating "? IS NULL OR ..." for every row
+        StringBuilder where = new StringBuilder(userColumn(query.getRole())).append(" = ?");
+        if (query.getFrom() != null) {
+            where.append(" AND Time >= ?");
+        }
+        if (query.getTo() != null) {
+            where.append(" AND Time <= ?");
+        }
+        if (query.getAfterTime() != null) {
+            where.append(" AND (Time > ? OR (Time = ? AND AppointmentID > ?))");
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.FIND_APPOINTMENTS.format(where))) {
+            int i = 1;
+            statement.setInt(i++, query.getLimit());
+            statement.setString(i++, query.getUsername());
+            if (query.getFrom() != null) {
+                statement.setDate(i++, query.getFrom());
+            }
+            if (query.getTo() != null) {
+                statement.setDate(i++, query.getTo());
+            }
+            if (query.getAfterTime() != null) {
+                statement.setDate(i++, query.getAfterTime());
+                statement.setDate(i++, query.getAfterTime());
+                statement.setLong(i++, query.getAfterAppointmentID());
+            }
+            statement.setFetchSize(Math.min(query.getLimit(), FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(toAppointment(resultSet));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void findAll(Date from, Date to, Consumer<Appointment> consumer) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        // a server cursor keeps at most EXPORT_FETCH_SIZE rows in the driver whatever its buffering settings, so an
+        // export of millions of rows runs in bounded memory
+        try (PreparedStatement statement = con.prepareStatement(Query.EXPORT_APPOINTMENTS.getSql(),
+                SQLServerResultSet.TYPE_SS_SERVER_CURSOR_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(toAppointment(resultSet));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment cancel(long appointmentID, AppointmentQuery.Role role, String username) throws SQLException {
+        String sql = Query.CANCEL_APPOINTMENTS.format("AppointmentID = ? AND " + userColumn(role) + " = ?");
+        List<Appointment> cancelled = cancel(sql, statement -> {
+            statement.setLong(1, appointmentID);
+            statement.setString(2, username);
+        });
+        return cancelled.isEmpty() ? null : cancelled.get(0);
+    }
+
+    @Override
+    public List<Appointment> cancelAll(AppointmentQuery query) throws SQLException {
+        StringBuilder where = new StringBuilder(userColumn(query.getRole())).append(" = ?");
+        if (query.getFrom() != null) {
+            where.append(" AND Time >= ?");
+        }
+        if (query.getTo() != null) {
+            where.append(" AND Time <= ?");
+        }
+        return cancel(Query.CANCEL_APPOINTMENTS.format(where), statement -> {
+            int i = 1;
+            statement.setString(i++, query.getUsername());
+            if (query.getFrom() != null) {
+                statement.setDate(i++, query.getFrom());
+            }
+            if (query.getTo() != null) {
+                statement.setDate(i, query.getTo());
+            }
+        });
+    }
+
+    // run again if it was chosen as a deadlock victim, see the class comment
+    private List<Appointment> cancel(String sql, Parameters parameters) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return cancelOnce(sql, parameters);
+            } catch (SQLException e) {
+                if (e.getErrorCode() != DEADLOCK_VICTIM || attempt == CANCEL_ATTEMPTS) {
+                    throw e;
+                }
+                Metrics.increment("appointment.cancel.deadlock");
+            }
+        }
+    }
+
+    private List<Appointment> cancelOnce(String sql, Parameters parameters) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<Appointment> cancelled = new ArrayList<>();
+            try (PreparedStatement statement = con.prepareStatement(sql)) {
+                parameters.set(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        cancelled.add(toAppointment(resultSet));
+                    }
+                }
+            }
+            con.commit();
+            return cancelled;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private interface Parameters {
+        void set(PreparedStatement statement) throws SQLException;
+    }
+
+    private static String userColumn(AppointmentQuery.Role role) {
+        return role == AppointmentQuery.Role.CAREGIVER ? "CaregiverID" : "PatientID";
+    }
+
+    private static Appointment toAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment(resultSet.getLong(1), resultSet.getDate(2), resultSet.getString(3),
+                resultSet.getString(4), resultSet.getString(5), resultSet.getInt(6));
+    }
+}
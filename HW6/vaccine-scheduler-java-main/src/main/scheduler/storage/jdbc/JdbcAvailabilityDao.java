@@ -0,0 +1,192 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.DayCapacity;
+import scheduler.model.Slot;
+import scheduler.storage.AvailabilityDao;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+class JdbcAvailabilityDao implements AvailabilityDao {
+
+    private static final int UPLOAD_BATCH_SIZE = 500;
+
+    @Override
+    public boolean exists(Date d, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_AVAILABILITY.getSql())) {
+            statement.setDate(1, d);
+            statement.setString(2, caregiver);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public SortedSet<String> getCaregivers(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_CAREGIVERS.getSql())) {
+            statement.setDate(1, d);
+            SortedSet<String> usernames = new TreeSet<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    usernames.add(resultSet.getString(1));
+                }
+            }
+            return usernames;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Slot> getSlots(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_SLOTS.getSql())) {
+            statement.setDate(1, d);
+            List<Slot> slots = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    slots.add(new Slot(resultSet.getString(1), resultSet.getInt(2), resultSet.getInt(3)));
+                }
+            }
+            return slots;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<DayCapacity> getCapacity(Date from, Date to) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.CAPACITY_REPORT.getSql())) {
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setDate(3, from);
+            statement.setDate(4, to);
+            List<DayCapacity> days = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    days.add(new DayCapacity(resultSet.getDate(1), resultSet.getInt(2), resultSet.getLong(3),
+                            resultSet.getLong(4)));
+                }
+            }
+            return days;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void add(Date d, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.INSERT_AVAILABILITY.getSql())) {
+            statement.setDate(1, d);
+            statement.setString(2, caregiver);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Date> addAll(String caregiver, Collection<Date> dates) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        List<Date> added = new ArrayList<>();
+        try (PreparedStatement statement = con.prepareStatement(Query.INSERT_AVAILABILITY_IF_FREE.getSql())) {
+            con.setAutoCommit(false);
+            List<Date> batch = new ArrayList<>(UPLOAD_BATCH_SIZE);
+            for (Date d : dates) {
+                statement.setDate(1, d);
+                statement.setString(2, caregiver);
+                statement.addBatch();
+                batch.add(d);
+                if (batch.size() == UPLOAD_BATCH_SIZE) {
+                    collectInserted(statement.executeBatch(), batch, added);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                collectInserted(statement.executeBatch(), batch, added);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean addSlots(Date d, String caregiver, Collection<Integer> starts, int capacity) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(Query.CHECK_CAREGIVER_DATE.getSql())) {
+                statement.setDate(1, d);
+                statement.setString(2, caregiver);
+                statement.setDate(3, d);
+                statement.setString(4, caregiver);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        con.rollback();
+                        return false;
+                    }
+                }
+            }
+            try (PreparedStatement statement = con.prepareStatement(Query.INSERT_SLOT.getSql())) {
+                int batched = 0;
+                for (int start : starts) {
+                    statement.setDate(1, d);
+                    statement.setString(2, caregiver);
+                    statement.setInt(3, start);
+                    statement.setInt(4, capacity);
+                    statement.addBatch();
+                    if (++batched == UPLOAD_BATCH_SIZE) {
+                        statement.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    statement.executeBatch();
+                }
+            }
+            con.commit();
+            return true;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void collectInserted(int[] counts, List<Date> batch, List<Date> added) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                added.add(batch.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaMigrator;
+import scheduler.storage.AppointmentDao;
+import scheduler.storage.AvailabilityDao;
+import scheduler.storage.CaregiverSelection;
+import scheduler.storage.Storage;
+import scheduler.storage.UserDao;
+import scheduler.storage.VaccineDao;
+import scheduler.storage.WaitlistDao;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+
+/**
+ * The tables of resources/migrations on SQL Server, reached through the ConnectionManager pool. Missing
+ * migrations are applied when the storage is created, unless SchemaMigrate is 0, and so are the dose leases of
+ * processes that stopped without returning them (see DoseLedger).
+ */
+public class JdbcStorage implements Storage {
+
+    private final UserDao caregivers = new JdbcUserDao(Query.CAREGIVER_EXISTS,
+            Query.SELECT_EXISTING_CAREGIVERS, Query.INSERT_CAREGIVER, Query.INSERT_NEW_CAREGIVER,
+            Query.SELECT_CAREGIVER_CREDENTIALS, Query.UPDATE_CAREGIVER_CREDENTIALS);
+    private final UserDao patients = new JdbcUserDao(Query.PATIENT_EXISTS,
+            Query.SELECT_EXISTING_PATIENTS, Query.INSERT_PATIENT, Query.INSERT_NEW_PATIENT,
+            Query.SELECT_PATIENT_CREDENTIALS, Query.UPDATE_PATIENT_CREDENTIALS);
+    private final VaccineDao vaccines = new JdbcVaccineDao();
+    private final AvailabilityDao availabilities = new JdbcAvailabilityDao();
+    private final DoseLedger ledger;
+    private final AppointmentDao appointments;
+    private final WaitlistDao waitlist = new JdbcWaitlistDao();
+
+    public JdbcStorage() {
+        this(Util.intEnv("SchemaMigrate", 1) != 0);
+    }
+
+    public JdbcStorage(boolean migrate) {
+        if (migrate) {
+            try {
+                int applied = new SchemaMigrator().migrate();
+                if (applied > 0) {
+                    System.out.println("Applied " + applied + " schema migration(s)");
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not migrate the database schema: " + e.getMessage(), e);
+            }
+        }
+        boolean useLedger = Util.intEnv("DoseLedger", 0) != 0;
+        int leaseTimeoutSeconds = Util.intEnv("DoseLeaseTimeoutSeconds", 60);
+        if (migrate || useLedger) {
+            // doses leased by processes that died, whether or not this one uses a ledger itself
+            try {
+                int returned = DoseLedger.reclaimStale(leaseTimeoutSeconds);
+                if (returned > 0) {
+                    System.out.println("Returned " + returned + " leased dose(s) of stopped processes");
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not return stale dose leases: " + e.getMessage(), e);
+            }
+        }
+        ledger = useLedger ? new DoseLedger(Util.intEnv("DoseLeaseSize", 500), Util.intEnv("DoseFlushMillis", 1000),
+                leaseTimeoutSeconds) : null;
+        appointments = new JdbcAppointmentDao(CaregiverSelection.fromEnv(), ledger);
+    }
+
+    @Override
+    public UserDao caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public UserDao patients() {
+        return patients;
+    }
+
+    @Override
+    public VaccineDao vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AvailabilityDao availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public AppointmentDao appointments() {
+        return appointments;
+    }
+
+    @Override
+    public WaitlistDao waitlist() {
+        return waitlist;
+    }
+
+    @Override
+    public void close() {
+        if (ledger != null) {
+            ledger.close();
+        }
+        ConnectionManager.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+package scheduler.storage.jdbc;
+
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.db.ConnectionManager;
+import scheduler.storage.UserDao;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+class JdbcUserDao implements UserDao {
+
+    private final Query selectUsername;
+    private final Query selectExisting;
+    private final Query insertUser;
+    private final Query insertNewUser;
+    private final Query selectCredentials;
+    private final Query updateCredentials;
+
+    JdbcUserDao(Query selectUsername, Query selectExisting, Query insertUser, Query insertNewUser,
+                Query selectCredentials, Query updateCredentials) {
+        this.selectUsername = selectUsername;
+        this.selectExisting = selectExisting;
+        this.insertUser = insertUser;
+        this.insertNewUser = insertNewUser;
+        this.selectCredentials = selectCredentials;
+        this.updateCredentials = updateCredentials;
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(selectUsername.getSql())) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<String> existing(Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        // one statement for any number of usernames, passed as a single JSON array parameter
+        try (PreparedStatement statement = con.prepareStatement(selectExisting.getSql())) {
+            statement.setString(1, jsonArray(usernames));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString(1));
+                }
+            }
+            return existing;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void insert(String username, CredentialVerifier.Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(insertUser.getSql())) {
+            statement.setString(1, username);
+            statement.setBytes(2, credentials.getSalt());
+            statement.setBytes(3, credentials.getHash());
+            statement.setString(4, credentials.getParams().toString());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int insertAll(Map<String, CredentialVerifier.Credentials> accounts) throws SQLException {
+        if (accounts.isEmpty()) {
+            return 0;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(insertNewUser.getSql())) {
+            con.setAutoCommit(false);
+            for (Map.Entry<String, CredentialVerifier.Credentials> account : accounts.entrySet()) {
+                CredentialVerifier.Credentials credentials = account.getValue();
+                statement.setString(1, account.getKey());
+                statement.setBytes(2, credentials.getSalt());
+                statement.setBytes(3, credentials.getHash());
+                statement.setString(4, credentials.getParams().toString());
+                statement.setString(5, account.getKey());
+                statement.addBatch();
+            }
+            int inserted = 0;
+            for (int count : statement.executeBatch()) {
+                // SUCCESS_NO_INFO is a row inserted by a driver that does not count them
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    inserted++;
+                }
+            }
+            con.commit();
+            return inserted;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public CredentialVerifier.Credentials getCredentials(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(selectCredentials.getSql())) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                // we need to call Util.trim() to get rid of the paddings of the BINARY(16) column
+                return new CredentialVerifier.Credentials(resultSet.getBytes("Salt"),
+                        Util.trim(resultSet.getBytes("Hash")), HashParams.parse(resultSet.getString("HashParams")));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateCredentials(String username, CredentialVerifier.Credentials credentials) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(updateCredentials.getSql())) {
+            statement.setBytes(1, credentials.getSalt());
+            statement.setBytes(2, credentials.getHash());
+            statement.setString(3, credentials.getParams().toString());
+            statement.setString(4, username);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static String jsonArray(Collection<String> values) {
+        StringBuilder json = new StringBuilder(values.size() * 16);
+        json.append('[');
+        for (String value : values) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.storage.VaccineDao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+class JdbcVaccineDao implements VaccineDao {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public Integer getDoses(String vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_DOSES.getSql())) {
+            statement.setString(1, vaccine);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public SortedMap<String, Integer> getAllDoses() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_ALL_DOSES.getSql())) {
+            SortedMap<String, Integer> doses = new TreeMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    doses.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            return doses;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void insert(String vaccine, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.INSERT_VACCINE.getSql())) {
+            statement.setString(1, vaccine);
+            statement.setInt(2, doses);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccine, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.ADD_DOSES.getSql())) {
+            statement.setInt(1, doses);
+            statement.setString(2, vaccine);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> doses) throws SQLException {
+        // sorted, so that concurrent imports lock the Vaccines rows in the same order
+        TreeMap<String, Integer> sorted = new TreeMap<>(doses);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.UPSERT_DOSES.getSql())) {
+            con.setAutoCommit(false);
+            int batched = 0;
+            for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+                statement.setString(1, entry.getKey());
+                statement.setInt(2, entry.getValue());
+                statement.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    statement.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                statement.executeBatch();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean removeDoses(String vaccine, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.REMOVE_DOSES.getSql())) {
+            statement.setInt(1, doses);
+            statement.setString(2, vaccine);
+            statement.setInt(3, doses);
+            return statement.executeUpdate() > 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
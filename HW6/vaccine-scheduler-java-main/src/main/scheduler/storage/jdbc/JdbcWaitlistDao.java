@@ -0,0 +1,112 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.WaitlistDao;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+class JdbcWaitlistDao implements WaitlistDao {
+
+    // the filtered unique index on (PatientID, Time) of the waiting entries
+    private static final int DUPLICATE_KEY = 2601;
+
+    @Override
+    public WaitlistEntry add(String patient, Date d, String vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.INSERT_WAITLIST.getSql())) {
+            statement.setDate(1, d);
+            statement.setString(2, patient);
+            statement.setString(3, vaccine);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return new WaitlistEntry(resultSet.getLong(1), d, patient, vaccine, WaitlistEntry.Status.WAITING, -1);
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == DUPLICATE_KEY) {
+                return null;
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<WaitlistEntry> waiting(long afterID, int limit) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_WAITING.getSql())) {
+            statement.setInt(1, limit);
+            statement.setLong(2, afterID);
+            return toEntries(statement);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean resolve(long waitlistID, WaitlistEntry.Status status, long appointmentID) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.RESOLVE_WAITLIST.getSql())) {
+            statement.setString(1, status.name());
+            if (appointmentID < 0) {
+                statement.setNull(2, Types.BIGINT);
+            } else {
+                statement.setLong(2, appointmentID);
+            }
+            statement.setLong(3, waitlistID);
+            return statement.executeUpdate() > 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<WaitlistEntry> forPatient(String patient) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.SELECT_PATIENT_WAITLIST.getSql())) {
+            statement.setString(1, patient);
+            return toEntries(statement);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void acknowledge(String patient, long upToID) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try (PreparedStatement statement = con.prepareStatement(Query.DELETE_RESOLVED_WAITLIST.getSql())) {
+            statement.setString(1, patient);
+            statement.setLong(2, upToID);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // columns WaitlistID, Time, PatientID, Vaccine, Status, AppointmentID
+    private static List<WaitlistEntry> toEntries(PreparedStatement statement) throws SQLException {
+        List<WaitlistEntry> entries = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                long appointmentID = resultSet.getLong(6);
+                entries.add(new WaitlistEntry(resultSet.getLong(1), resultSet.getDate(2), resultSet.getString(3),
+                        resultSet.getString(4), WaitlistEntry.Status.valueOf(resultSet.getString(5)),
+                        resultSet.wasNull() ? -1 : appointmentID));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,197 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.StatementCache;
+
+/**
+ * Every statement the JDBC storage runs, by name. Keeping the text fixed per name means each one is prepared once
+ * per connection and then served by the StatementCache. The templates (those with %s) have their filters filled
+ * in by the DAO; each filter combination is again a fixed text, so the cache holds one statement per combination.
+ */
+enum Query {
+
+    CAREGIVER_EXISTS("SELECT 1 FROM Caregivers WHERE Username = ?"),
+    INSERT_CAREGIVER("INSERT INTO Caregivers (Username, Salt, Hash, HashParams) VALUES (? , ?, ?, ?)"),
+    // usernames of a JSON array that are taken, as spelled in the array; typed varchar by the WITH clause, so each
+    // is an index seek
+    SELECT_EXISTING_CAREGIVERS("SELECT j.Username FROM OPENJSON(?) WITH (Username varchar(255) '$') AS j " +
+            "JOIN Caregivers c ON c.Username = j.Username"),
+    // inserts nothing if the username was taken since it was checked
+    INSERT_NEW_CAREGIVER("INSERT INTO Caregivers (Username, Salt, Hash, HashParams) SELECT ?, ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Caregivers WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)"),
+    SELECT_CAREGIVER_CREDENTIALS("SELECT Salt, Hash, HashParams FROM Caregivers WHERE Username = ?"),
+    UPDATE_CAREGIVER_CREDENTIALS("UPDATE Caregivers SET Salt = ?, Hash = ?, HashParams = ? WHERE Username = ?"),
+
+    PATIENT_EXISTS("SELECT 1 FROM Patients WHERE Username = ?"),
+    INSERT_PATIENT("INSERT INTO Patients (Username, Salt, Hash, HashParams) VALUES (? , ?, ?, ?)"),
+    SELECT_EXISTING_PATIENTS("SELECT j.Username FROM OPENJSON(?) WITH (Username varchar(255) '$') AS j " +
+            "JOIN Patients p ON p.Username = j.Username"),
+    INSERT_NEW_PATIENT("INSERT INTO Patients (Username, Salt, Hash, HashParams) SELECT ?, ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Patients WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)"),
+    SELECT_PATIENT_CREDENTIALS("SELECT Salt, Hash, HashParams FROM Patients WHERE Username = ?"),
+    UPDATE_PATIENT_CREDENTIALS("UPDATE Patients SET Salt = ?, Hash = ?, HashParams = ? WHERE Username = ?"),
+
+    // doses leased by a DoseLedger count as available until they are used
+    SELECT_DOSES("SELECT v.Doses + ISNULL((SELECT SUM(l.Remaining) FROM DoseLeases l WHERE l.Vaccine = v.Name), 0) " +
+            "- (SELECT COUNT(*) FROM DoseUses u WHERE u.Vaccine = v.Name) FROM Vaccines v WHERE v.Name = ?"),
+    SELECT_ALL_DOSES("SELECT v.Name, v.Doses + " +
+            "ISNULL((SELECT SUM(l.Remaining) FROM DoseLeases l WHERE l.Vaccine = v.Name), 0) " +
+            "- (SELECT COUNT(*) FROM DoseUses u WHERE u.Vaccine = v.Name) FROM Vaccines v"),
+    INSERT_VACCINE("INSERT INTO Vaccines VALUES (?, ?)"),
+    ADD_DOSES("UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?"),
+    // only succeeds if the stored value still covers the doses, whatever other clients did since we read it
+    REMOVE_DOSES("UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?"),
+    // HOLDLOCK makes the match-then-insert atomic when two imports add the same new vaccine
+    UPSERT_DOSES("MERGE Vaccines WITH (HOLDLOCK) AS t " +
+            "USING (VALUES (?, ?)) AS s (Name, Doses) ON t.Name = s.Name " +
+            "WHEN MATCHED THEN UPDATE SET Doses = t.Doses + s.Doses " +
+            "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (s.Name, s.Doses);"),
+
+    // moves up to ? doses from the vaccine to a lease, OUTPUT is how many
+    LEASE_DOSES("UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses < ? THEN Doses ELSE ? END " +
+            "OUTPUT deleted.Doses - inserted.Doses WHERE Name = ? AND Doses > 0"),
+    INSERT_LEASE("INSERT INTO DoseLeases (Owner, Vaccine, Remaining, RenewedAt) " +
+            "VALUES (?, ?, ?, SYSUTCDATETIME())"),
+    // updates nothing if the lease was given back; it is never created again under the same owner
+    TOP_UP_LEASE("UPDATE DoseLeases SET Remaining = Remaining + ?, RenewedAt = SYSUTCDATETIME() " +
+            "WHERE Owner = ? AND Vaccine = ?"),
+    // records the dose of a reservation, in its transaction; inserts nothing once the lease was given back. The
+    // lease row is only read, under a shared lock kept until commit, so a lease cannot be given back without
+    // counting the row and reservations do not queue on each other
+    USE_LEASED_DOSE("INSERT INTO DoseUses (Owner, Vaccine, AppointmentID) SELECT Owner, Vaccine, ? " +
+            "FROM DoseLeases WITH (HOLDLOCK) WHERE Owner = ? AND Vaccine = ?"),
+    // renews a lease and moves its recorded uses into Remaining; returns 0 if the lease is gone. The lease row is
+    // locked first, as by a reservation, so no use is still being recorded when the uses are read
+    FLUSH_LEASE("SET NOCOUNT ON; " +
+            "DECLARE @used TABLE (AppointmentID bigint); " +
+            "UPDATE DoseLeases SET RenewedAt = SYSUTCDATETIME() WHERE Owner = ? AND Vaccine = ?; " +
+            "IF @@ROWCOUNT = 0 BEGIN SELECT 0; RETURN; END; " +
+            "DELETE FROM DoseUses OUTPUT deleted.AppointmentID INTO @used WHERE Owner = ? AND Vaccine = ?; " +
+            "UPDATE DoseLeases SET Remaining = Remaining - (SELECT COUNT(*) FROM @used) " +
+            "WHERE Owner = ? AND Vaccine = ?; " +
+            "SELECT 1"),
+    // template, %s selects the leases to give back; returns the doses given back, which are the Remaining less the
+    // uses not moved into it yet. The leases are deleted first, so that no use is recorded after they were counted
+    RELEASE_LEASES("SET NOCOUNT ON; " +
+            "DECLARE @released TABLE (Owner char(36), Vaccine varchar(255), Remaining int); " +
+            "DELETE FROM DoseLeases OUTPUT deleted.Owner, deleted.Vaccine, deleted.Remaining INTO @released " +
+            "WHERE %s; " +
+            "DECLARE @used TABLE (Vaccine varchar(255)); " +
+            "DELETE u OUTPUT deleted.Vaccine INTO @used FROM DoseUses u " +
+            "JOIN @released r ON u.Owner = r.Owner AND u.Vaccine = r.Vaccine; " +
+            "UPDATE v SET Doses = v.Doses + r.Doses FROM Vaccines v " +
+            "JOIN (SELECT Vaccine, SUM(Doses) AS Doses FROM (SELECT Vaccine, Remaining AS Doses FROM @released " +
+            "UNION ALL SELECT Vaccine, -1 FROM @used) d GROUP BY Vaccine) r ON v.Name = r.Vaccine; " +
+            "SELECT ISNULL((SELECT SUM(Remaining) FROM @released), 0) - (SELECT COUNT(*) FROM @used)"),
+
+    SELECT_AVAILABILITY("SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?"),
+    SELECT_CAREGIVERS("SELECT DISTINCT Username FROM Availabilities WHERE Time = ? AND Capacity > 0"),
+    // per date: the caregivers with free places or appointments, the free places and the appointments; set based
+    // over the (Time, ...) key ranges of Availabilities and the per caregiver counts CaregiverLoads keeps
+    CAPACITY_REPORT("SELECT Time, COUNT(*), SUM(Booked), SUM(Free) FROM (" +
+            "SELECT Time, Username, SUM(Booked) AS Booked, SUM(Free) AS Free FROM (" +
+            "SELECT Time, Username, 0 AS Booked, CAST(Capacity AS bigint) AS Free FROM Availabilities " +
+            "WHERE Time >= ? AND Time <= ? AND Capacity > 0 " +
+            "UNION ALL SELECT Time, Username, CAST(Booked AS bigint), 0 FROM CaregiverLoads " +
+            "WHERE Time >= ? AND Time <= ? AND Booked > 0) AS places " +
+            "GROUP BY Time, Username) AS caregivers GROUP BY Time ORDER BY Time"),
+    SELECT_SLOTS("SELECT Username, Slot, Capacity FROM Availabilities WHERE Time = ? AND Capacity > 0 " +
+            "ORDER BY Username, Slot"),
+    // Slot and Capacity default to the whole day slot for one patient
+    INSERT_AVAILABILITY("INSERT INTO Availabilities (Time, Username) VALUES (? , ?)"),
+    INSERT_SLOT("INSERT INTO Availabilities (Time, Username, Slot, Capacity) VALUES (?, ?, ?, ?)"),
+    // HOLDLOCK keeps a concurrent upload for the same caregiver and date out until the slots are inserted
+    CHECK_CAREGIVER_DATE("SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) WHERE Time = ? AND Username = ? " +
+            "UNION ALL SELECT 1 FROM Appointments WHERE Time = ? AND CaregiverID = ?"),
+    // the existence checks run on the server, so a date that is already taken just inserts 0 rows
+    INSERT_AVAILABILITY_IF_FREE("INSERT INTO Availabilities (Time, Username) " +
+            "SELECT v.Time, v.Username FROM (VALUES (?, ?)) AS v (Time, Username) " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities a WHERE a.Time = v.Time AND a.Username = v.Username) " +
+            "AND NOT EXISTS (SELECT 1 FROM Appointments p WHERE p.Time = v.Time AND p.CaregiverID = v.Username)"),
+
+    // a probe of the unique (PatientID, Time) index, so the common case fails before claiming anything;
+    // concurrent duplicates are caught by the index itself when the appointment is inserted
+    CHECK_PATIENT_DATE("SELECT 1 FROM Appointments WHERE PatientID = ? AND Time = ?"),
+    // template, %s is the ORDER BY of the caregiver selection: takes a place in the first slot in that order with
+    // one free; READPAST skips slots that a concurrent reservation is already claiming instead of queueing behind it
+    CLAIM_SLOT("WITH s AS (SELECT TOP (1) a.Username, a.Slot, a.Capacity FROM Availabilities a " +
+            "WITH (ROWLOCK, UPDLOCK, READPAST) WHERE a.Time = ? AND a.Capacity > 0 ORDER BY %s) " +
+            "UPDATE s SET Capacity = Capacity - 1 OUTPUT inserted.Username, inserted.Slot"),
+    // the same for a given slot
+    CLAIM_SLOT_AT("WITH s AS (SELECT TOP (1) a.Username, a.Slot, a.Capacity FROM Availabilities a " +
+            "WITH (ROWLOCK, UPDLOCK, READPAST) WHERE a.Time = ? AND a.Slot = ? AND a.Capacity > 0 ORDER BY %s) " +
+            "UPDATE s SET Capacity = Capacity - 1 OUTPUT inserted.Username, inserted.Slot"),
+    // one more appointment for the caregiver on the date
+    ADD_LOAD("MERGE CaregiverLoads WITH (HOLDLOCK) AS t " +
+            "USING (VALUES (?, ?)) AS s (Time, Username) ON t.Time = s.Time AND t.Username = s.Username " +
+            "WHEN MATCHED THEN UPDATE SET Booked = t.Booked + 1 " +
+            "WHEN NOT MATCHED THEN INSERT (Time, Username, Booked) VALUES (s.Time, s.Username, 1);"),
+    TAKE_DOSE("UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0"),
+    VACCINE_EXISTS("SELECT 1 FROM Vaccines WHERE Name = ?"),
+    ADD_APPOINTMENT("INSERT INTO Appointments (AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot) " +
+            "VALUES (?, ?, ?, ?, ?, ?)"),
+    SELECT_APPOINTMENT("SELECT AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot " +
+            "FROM Appointments WHERE AppointmentID = ?"),
+    SELECT_CAREGIVER_DATE("SELECT 1 FROM Appointments WHERE Time = ? AND CaregiverID = ?"),
+    // template, %s is the filter on the user and the dates
+    FIND_APPOINTMENTS("SELECT TOP (?) AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot " +
+            "FROM Appointments WHERE %s ORDER BY Time, AppointmentID"),
+    // in clustered key order, so rows stream from the scan without a sort
+    EXPORT_APPOINTMENTS("SELECT AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot " +
+            "FROM Appointments WHERE Time >= ? AND Time <= ? ORDER BY AppointmentID"),
+    // template, %s is the WHERE clause of the DELETE
+    CANCEL_APPOINTMENTS("SET NOCOUNT ON; " +
+            "DECLARE @cancelled TABLE (AppointmentID bigint, Time date, PatientID varchar(255), " +
+            "CaregiverID varchar(255), Vaccine varchar(255), Slot smallint); " +
+            // read and locked first, so that the writes below take their locks in the order of a reservation
+            "INSERT INTO @cancelled SELECT AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot " +
+            "FROM Appointments WITH (ROWLOCK, UPDLOCK) WHERE %s; " +
+            "UPDATE a SET Capacity = a.Capacity + c.Places FROM Availabilities a " +
+            "JOIN (SELECT Time, Slot, CaregiverID, COUNT(*) AS Places FROM @cancelled GROUP BY Time, Slot, CaregiverID) c " +
+            "ON a.Time = c.Time AND a.Slot = c.Slot AND a.Username = c.CaregiverID; " +
+            // rows of appointments booked before V3 were deleted, not counted down
+            "INSERT INTO Availabilities (Time, Username, Slot, Capacity) " +
+            "SELECT c.Time, c.CaregiverID, c.Slot, COUNT(*) FROM @cancelled c WHERE NOT EXISTS " +
+            "(SELECT 1 FROM Availabilities a WHERE a.Time = c.Time AND a.Slot = c.Slot AND a.Username = c.CaregiverID) " +
+            "GROUP BY c.Time, c.Slot, c.CaregiverID; " +
+            "UPDATE v SET Doses = v.Doses + c.Doses FROM Vaccines v " +
+            "JOIN (SELECT Vaccine, COUNT(*) AS Doses FROM @cancelled GROUP BY Vaccine) c ON v.Name = c.Vaccine; " +
+            "DELETE a FROM Appointments a JOIN @cancelled c ON a.AppointmentID = c.AppointmentID; " +
+            "UPDATE l SET Booked = l.Booked - c.Booked FROM CaregiverLoads l " +
+            "JOIN (SELECT Time, CaregiverID, COUNT(*) AS Booked FROM @cancelled GROUP BY Time, CaregiverID) c " +
+            "ON l.Time = c.Time AND l.Username = c.CaregiverID; " +
+            "SELECT AppointmentID, Time, PatientID, CaregiverID, Vaccine, Slot FROM @cancelled " +
+            "ORDER BY Time, AppointmentID"),
+
+    INSERT_WAITLIST("INSERT INTO Waitlist (Time, PatientID, Vaccine) OUTPUT inserted.WaitlistID VALUES (?, ?, ?)"),
+    SELECT_WAITING("SELECT TOP (?) WaitlistID, Time, PatientID, Vaccine, Status, AppointmentID FROM Waitlist " +
+            "WHERE Status = 'WAITING' AND WaitlistID > ? ORDER BY WaitlistID"),
+    // only the first outcome counts, should two allocators get to the same entry
+    RESOLVE_WAITLIST("UPDATE Waitlist SET Status = ?, AppointmentID = ? WHERE WaitlistID = ? AND Status = 'WAITING'"),
+    SELECT_PATIENT_WAITLIST("SELECT WaitlistID, Time, PatientID, Vaccine, Status, AppointmentID FROM Waitlist " +
+            "WHERE PatientID = ? ORDER BY WaitlistID"),
+    DELETE_RESOLVED_WAITLIST("DELETE FROM Waitlist WHERE PatientID = ? AND WaitlistID <= ? AND Status <> 'WAITING'");
+
+    // executions are timed by name, see StatementCache
+    static {
+        for (Query query : values()) {
+            StatementCache.nameStatement(query.sql, query.name());
+        }
+    }
+
+    private final String sql;
+
+    Query(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    // fills in the %s of a template
+    public String format(CharSequence filter) {
+        String filled = String.format(sql, filter);
+        StatementCache.nameStatement(filled, name());
+        return filled;
+    }
+}
@@ -0,0 +1,902 @@
+package scheduler.storage.memory;
+
+import scheduler.auth.CredentialVerifier;
+import scheduler.auth.HashParams;
+import scheduler.model.Appointment;
+import scheduler.model.DayCapacity;
+import scheduler.model.Reservation;
+import scheduler.model.Reservation.Status;
+import scheduler.model.Slot;
+import scheduler.model.WaitlistEntry;
+import scheduler.storage.AppointmentDao;
+import scheduler.storage.AppointmentQuery;
+import scheduler.storage.AvailabilityDao;
+import scheduler.storage.CaregiverSelection;
+import scheduler.storage.Storage;
+import scheduler.storage.UserDao;
+import scheduler.storage.VaccineDao;
+import scheduler.storage.WaitlistDao;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every table in memory, for single-process deployments and tests that should not need SQL Server.
+ *
+ * Every change is first appended to a WriteAheadLog as one record and only then applied, so a change is either
+ * fully replayed after a restart or not at all; records that touch several tables (a booking) are single records
+ * for the same reason. On open the log is replayed and then compacted to one record per row. Operations are
+ * serialized on one lock, which keeps them atomic and is cheap at the sizes a single clinic deals with.
+ */
+public class MemoryStorage implements Storage {
+
+    // same start as the AppointmentIDSeq sequence of the SQL schema
+    private static final long FIRST_APPOINTMENT_ID = 10000000;
+    // appointments findAll copies per lock
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+    private static final Comparator<Appointment> TIME_ORDER =
+            Comparator.comparing(Appointment::getTime).thenComparingLong(Appointment::getAppointmentID);
+
+    // all fields below are guarded by this
+    private final Map<String, CredentialVerifier.Credentials> caregiverAccounts = new HashMap<>();
+    private final Map<String, CredentialVerifier.Credentials> patientAccounts = new HashMap<>();
+    private final TreeMap<String, Integer> doses = new TreeMap<>();
+    // date to caregiver to slot start to free places; slots without free places are removed
+    private final TreeMap<Date, TreeMap<String, TreeMap<Integer, Integer>>> available = new TreeMap<>();
+    private final TreeMap<Long, Appointment> appointmentsByID = new TreeMap<>();
+    // per user in (Time, AppointmentID) order
+    private final Map<String, TreeSet<Appointment>> appointmentsByCaregiver = new HashMap<>();
+    private final Map<String, TreeSet<Appointment>> appointmentsByPatient = new HashMap<>();
+    // date to caregiver to appointments, the load counter of least_booked
+    private final TreeMap<Date, Map<String, Integer>> booked = new TreeMap<>();
+    // the caregiver round_robin gave the last place on a date to
+    private final Map<Date, String> lastCaregivers = new HashMap<>();
+    private long lastAppointmentID = FIRST_APPOINTMENT_ID - 1;
+    private final TreeMap<Long, WaitlistEntry> waitlist = new TreeMap<>();
+    private final Map<String, TreeMap<Long, WaitlistEntry>> waitlistByPatient = new HashMap<>();
+    private long lastWaitlistID = 0;
+    private final WriteAheadLog log;
+    private final CaregiverSelection selection = CaregiverSelection.fromEnv();
+
+    private final UserDao caregivers = new MemoryUserDao("caregiver", caregiverAccounts);
+    private final UserDao patients = new MemoryUserDao("patient", patientAccounts);
+    private final VaccineDao vaccines = new MemoryVaccineDao();
+    private final AvailabilityDao availabilities = new MemoryAvailabilityDao();
+    private final MemoryAppointmentDao appointments = new MemoryAppointmentDao();
+    private final WaitlistDao waitlistDao = new MemoryWaitlistDao();
+
+    private MemoryStorage(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    // file may be null to keep nothing across restarts
+    public static MemoryStorage open(Path file, boolean sync) {
+        if (file == null) {
+            return new MemoryStorage(null);
+        }
+        WriteAheadLog log = new WriteAheadLog(file, sync);
+        MemoryStorage storage = new MemoryStorage(log);
+        try {
+            log.lock();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + file + ": " + e.getMessage(), e);
+        }
+        boolean opened = false;
+        try {
+            synchronized (storage) {
+                log.replay(storage::apply);
+                log.rewrite(storage.snapshot());
+            }
+            opened = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + file + ": " + e.getMessage(), e);
+        } finally {
+            if (!opened) {
+                // gives up the lock, so that the file can be opened again once fixed
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return storage;
+    }
+
+    @Override
+    public UserDao caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public UserDao patients() {
+        return patients;
+    }
+
+    @Override
+    public VaccineDao vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AvailabilityDao availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public AppointmentDao appointments() {
+        return appointments;
+    }
+
+    @Override
+    public WaitlistDao waitlist() {
+        return waitlistDao;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // logs the record, then applies it; must hold the lock
+    private void commit(String... record) throws SQLException {
+        if (log != null) {
+            try {
+                log.append(record);
+            } catch (IOException e) {
+                throw new SQLException("Could not write the write-ahead log", e);
+            }
+        }
+        apply(record);
+    }
+
+    // the only place the tables are changed, both for new records and for those replayed from the log
+    private void apply(String[] record) {
+        switch (record[0]) {
+            case "user": {
+                Map<String, CredentialVerifier.Credentials> accounts =
+                        record[1].equals("caregiver") ? caregiverAccounts : patientAccounts;
+                Base64.Decoder decoder = Base64.getDecoder();
+                accounts.put(record[2], new CredentialVerifier.Credentials(decoder.decode(record[3]),
+                        decoder.decode(record[4]), HashParams.parse(record[5])));
+                break;
+            }
+            case "users": {
+                // one record per import batch: the kind, then username, salt, hash and params of each account
+                Map<String, CredentialVerifier.Credentials> accounts =
+                        record[1].equals("caregiver") ? caregiverAccounts : patientAccounts;
+                Base64.Decoder decoder = Base64.getDecoder();
+                for (int i = 2; i < record.length; i += 4) {
+                    accounts.put(record[i], new CredentialVerifier.Credentials(decoder.decode(record[i + 1]),
+                            decoder.decode(record[i + 2]), HashParams.parse(record[i + 3])));
+                }
+                break;
+            }
+            case "doses":
+                // name and absolute dose count pairs
+                for (int i = 1; i < record.length; i += 2) {
+                    doses.put(record[i], Integer.parseInt(record[i + 1]));
+                }
+                break;
+            case "available":
+                // a caregiver followed by dates, each available for one patient the whole day
+                for (int i = 2; i < record.length; i++) {
+                    setPlaces(Date.valueOf(record[i]), record[1], Slot.WHOLE_DAY, 1);
+                }
+                break;
+            case "slots":
+                // a caregiver, a date and the free places, followed by the starts of the slots
+                for (int i = 4; i < record.length; i++) {
+                    setPlaces(Date.valueOf(record[2]), record[1], Integer.parseInt(record[i]),
+                            Integer.parseInt(record[3]));
+                }
+                break;
+            case "book": {
+                Appointment appointment = appointmentOf(record);
+                addPlaces(appointment.getTime(), appointment.getCaregiverID(), appointment.getSlot(), -1);
+                doses.computeIfPresent(appointment.getVaccine(), (k, v) -> v - 1);
+                addAppointment(appointment);
+                break;
+            }
+            case "appointment":
+                // a snapshot of a booking, unlike book it does not touch availabilities and doses
+                addAppointment(appointmentOf(record));
+                break;
+            case "cancel":
+                // appointment ids, each one's dose and caregiver slot are given back with it
+                for (int i = 1; i < record.length; i++) {
+                    Appointment appointment = removeAppointment(Long.parseLong(record[i]));
+                    if (appointment != null) {
+                        doses.computeIfPresent(appointment.getVaccine(), (k, v) -> v + 1);
+                        addPlaces(appointment.getTime(), appointment.getCaregiverID(), appointment.getSlot(), 1);
+                    }
+                }
+                break;
+            case "waitlist": {
+                // id, date, patient, vaccine and, in snapshots, the status and appointment id
+                WaitlistEntry entry = new WaitlistEntry(Long.parseLong(record[1]), Date.valueOf(record[2]), record[3],
+                        record[4], record.length > 5 ? WaitlistEntry.Status.valueOf(record[5])
+                        : WaitlistEntry.Status.WAITING, record.length > 6 ? Long.parseLong(record[6]) : -1);
+                putWaitlistEntry(entry);
+                lastWaitlistID = Math.max(lastWaitlistID, entry.getWaitlistID());
+                break;
+            }
+            case "waitlist_resolve":
+                // id, status, appointment id
+                putWaitlistEntry(waitlist.get(Long.parseLong(record[1]))
+                        .resolved(WaitlistEntry.Status.valueOf(record[2]), Long.parseLong(record[3])));
+                break;
+            case "waitlist_ack": {
+                // patient, the last id shown
+                TreeMap<Long, WaitlistEntry> entries = waitlistByPatient.get(record[1]);
+                long upToID = Long.parseLong(record[2]);
+                if (entries != null) {
+                    entries.headMap(upToID, true).values().removeIf(entry -> {
+                        if (entry.getStatus() == WaitlistEntry.Status.WAITING) {
+                            return false;
+                        }
+                        waitlist.remove(entry.getWaitlistID());
+                        return true;
+                    });
+                }
+                break;
+            }
+            case "sequence":
+                lastAppointmentID = Math.max(lastAppointmentID, Long.parseLong(record[1]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + record[0] + " in the write-ahead log");
+        }
+    }
+
+    // book and appointment records: id, date, patient, caregiver, vaccine and slot
+    private static Appointment appointmentOf(String[] record) {
+        return new Appointment(Long.parseLong(record[1]), Date.valueOf(record[2]), record[3], record[4], record[5],
+                Integer.parseInt(record[6]));
+    }
+
+    private void setPlaces(Date d, String caregiver, int slot, int places) {
+        TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.computeIfAbsent(d, k -> new TreeMap<>());
+        TreeMap<Integer, Integer> slots = caregivers.computeIfAbsent(caregiver, k -> new TreeMap<>());
+        if (places > 0) {
+            slots.put(slot, places);
+            return;
+        }
+        slots.remove(slot);
+        if (slots.isEmpty()) {
+            caregivers.remove(caregiver);
+            if (caregivers.isEmpty()) {
+                available.remove(d);
+            }
+        }
+    }
+
+    private void addPlaces(Date d, String caregiver, int slot, int delta) {
+        setPlaces(d, caregiver, slot, freePlaces(d, caregiver, slot) + delta);
+    }
+
+    private int freePlaces(Date d, String caregiver, int slot) {
+        TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.get(d);
+        TreeMap<Integer, Integer> slots = caregivers == null ? null : caregivers.get(caregiver);
+        return slots == null ? 0 : slots.getOrDefault(slot, 0);
+    }
+
+    private void putWaitlistEntry(WaitlistEntry entry) {
+        waitlist.put(entry.getWaitlistID(), entry);
+        waitlistByPatient.computeIfAbsent(entry.getPatientID(), k -> new TreeMap<>()).put(entry.getWaitlistID(), entry);
+    }
+
+    private void addAppointment(Appointment appointment) {
+        appointmentsByID.put(appointment.getAppointmentID(), appointment);
+        appointmentsByCaregiver.computeIfAbsent(appointment.getCaregiverID(), k -> new TreeSet<>(TIME_ORDER))
+                .add(appointment);
+        appointmentsByPatient.computeIfAbsent(appointment.getPatientID(), k -> new TreeSet<>(TIME_ORDER))
+                .add(appointment);
+        booked.computeIfAbsent(appointment.getTime(), k -> new HashMap<>())
+                .merge(appointment.getCaregiverID(), 1, Integer::sum);
+        lastAppointmentID = Math.max(lastAppointmentID, appointment.getAppointmentID());
+    }
+
+    private Appointment removeAppointment(long appointmentID) {
+        Appointment appointment = appointmentsByID.remove(appointmentID);
+        if (appointment != null) {
+            appointmentsByCaregiver.get(appointment.getCaregiverID()).remove(appointment);
+            appointmentsByPatient.get(appointment.getPatientID()).remove(appointment);
+            Map<String, Integer> loads = booked.get(appointment.getTime());
+            if (loads.merge(appointment.getCaregiverID(), -1, Integer::sum) == 0) {
+                loads.remove(appointment.getCaregiverID());
+                if (loads.isEmpty()) {
+                    booked.remove(appointment.getTime());
+                }
+            }
+        }
+        return appointment;
+    }
+
+    // the current state as records, used to compact the log
+    private List<String[]> snapshot() {
+        List<String[]> records = new ArrayList<>();
+        for (Map.Entry<String, CredentialVerifier.Credentials> account : caregiverAccounts.entrySet()) {
+            records.add(userRecord("caregiver", account.getKey(), account.getValue()));
+        }
+        for (Map.Entry<String, CredentialVerifier.Credentials> account : patientAccounts.entrySet()) {
+            records.add(userRecord("patient", account.getKey(), account.getValue()));
+        }
+        for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+            records.add(new String[]{"doses", vaccine.getKey(), String.valueOf(vaccine.getValue())});
+        }
+        for (Map.Entry<Date, TreeMap<String, TreeMap<Integer, Integer>>> day : available.entrySet()) {
+            for (Map.Entry<String, TreeMap<Integer, Integer>> caregiver : day.getValue().entrySet()) {
+                for (Map.Entry<Integer, Integer> slot : caregiver.getValue().entrySet()) {
+                    records.add(new String[]{"slots", caregiver.getKey(), day.getKey().toString(),
+                            String.valueOf(slot.getValue()), String.valueOf(slot.getKey())});
+                }
+            }
+        }
+        for (Appointment appointment : appointmentsByID.values()) {
+            records.add(new String[]{"appointment", String.valueOf(appointment.getAppointmentID()),
+                    appointment.getTime().toString(), appointment.getPatientID(), appointment.getCaregiverID(),
+                    appointment.getVaccine(), String.valueOf(appointment.getSlot())});
+        }
+        for (WaitlistEntry entry : waitlist.values()) {
+            records.add(new String[]{"waitlist", String.valueOf(entry.getWaitlistID()), entry.getTime().toString(),
+                    entry.getPatientID(), entry.getVaccine(), entry.getStatus().name(),
+                    String.valueOf(entry.getAppointmentID())});
+        }
+        records.add(new String[]{"sequence", String.valueOf(lastAppointmentID)});
+        return records;
+    }
+
+    private static String[] userRecord(String kind, String username, CredentialVerifier.Credentials credentials) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return new String[]{"user", kind, username, encoder.encodeToString(credentials.getSalt()),
+                encoder.encodeToString(credentials.getHash()), credentials.getParams().toString()};
+    }
+
+    private class MemoryUserDao implements UserDao {
+        private final String kind;
+        private final Map<String, CredentialVerifier.Credentials> accounts;
+
+        private MemoryUserDao(String kind, Map<String, CredentialVerifier.Credentials> accounts) {
+            this.kind = kind;
+            this.accounts = accounts;
+        }
+
+        @Override
+        public boolean exists(String username) {
+            synchronized (MemoryStorage.this) {
+                return accounts.containsKey(username);
+            }
+        }
+
+        @Override
+        public Set<String> existing(Collection<String> usernames) {
+            synchronized (MemoryStorage.this) {
+                Set<String> existing = new HashSet<>();
+                for (String username : usernames) {
+                    if (accounts.containsKey(username)) {
+                        existing.add(username);
+                    }
+                }
+                return existing;
+            }
+        }
+
+        @Override
+        public void insert(String username, CredentialVerifier.Credentials credentials) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (accounts.containsKey(username)) {
+                    throw new SQLException("Username " + username + " is taken");
+                }
+                commit(userRecord(kind, username, credentials));
+            }
+        }
+
+        @Override
+        public int insertAll(Map<String, CredentialVerifier.Credentials> added) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                // a single record, so that the batch costs one write to the log
+                List<String> record = new ArrayList<>(2 + 4 * added.size());
+                record.add("users");
+                record.add(kind);
+                for (Map.Entry<String, CredentialVerifier.Credentials> account : added.entrySet()) {
+                    if (!accounts.containsKey(account.getKey())) {
+                        String[] user = userRecord(kind, account.getKey(), account.getValue());
+                        record.addAll(Arrays.asList(user).subList(2, user.length));
+                    }
+                }
+                int inserted = (record.size() - 2) / 4;
+                if (inserted > 0) {
+                    commit(record.toArray(new String[0]));
+                }
+                return inserted;
+            }
+        }
+
+        @Override
+        public CredentialVerifier.Credentials getCredentials(String username) {
+            synchronized (MemoryStorage.this) {
+                CredentialVerifier.Credentials credentials = accounts.get(username);
+                if (credentials == null) {
+                    return null;
+                }
+                // trimmed like the hash read from the BINARY(16) column
+                return new CredentialVerifier.Credentials(credentials.getSalt(), Util.trim(credentials.getHash()),
+                        credentials.getParams());
+            }
+        }
+
+        @Override
+        public void updateCredentials(String username, CredentialVerifier.Credentials credentials)
+                throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (accounts.containsKey(username)) {
+                    commit(userRecord(kind, username, credentials));
+                }
+            }
+        }
+    }
+
+    private class MemoryVaccineDao implements VaccineDao {
+
+        @Override
+        public Integer getDoses(String vaccine) {
+            synchronized (MemoryStorage.this) {
+                return doses.get(vaccine);
+            }
+        }
+
+        @Override
+        public SortedMap<String, Integer> getAllDoses() {
+            synchronized (MemoryStorage.this) {
+                return new TreeMap<>(doses);
+            }
+        }
+
+        @Override
+        public void insert(String vaccine, int count) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (doses.containsKey(vaccine)) {
+                    throw new SQLException("Vaccine " + vaccine + " already exists");
+                }
+                commit("doses", vaccine, String.valueOf(count));
+            }
+        }
+
+        @Override
+        public void addDoses(String vaccine, int count) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                Integer current = doses.get(vaccine);
+                if (current != null) {
+                    commit("doses", vaccine, String.valueOf(current + count));
+                }
+            }
+        }
+
+        @Override
+        public void addDoses(Map<String, Integer> added) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                List<String> record = new ArrayList<>(1 + 2 * added.size());
+                record.add("doses");
+                for (Map.Entry<String, Integer> entry : added.entrySet()) {
+                    record.add(entry.getKey());
+                    record.add(String.valueOf(doses.getOrDefault(entry.getKey(), 0) + entry.getValue()));
+                }
+                commit(record.toArray(new String[0]));
+            }
+        }
+
+        @Override
+        public boolean removeDoses(String vaccine, int count) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                Integer current = doses.get(vaccine);
+                if (current == null || current < count) {
+                    return false;
+                }
+                commit("doses", vaccine, String.valueOf(current - count));
+                return true;
+            }
+        }
+    }
+
+    private class MemoryAvailabilityDao implements AvailabilityDao {
+
+        @Override
+        public boolean exists(Date d, String caregiver) {
+            synchronized (MemoryStorage.this) {
+                // slots without free places are not kept, their appointments show the date was uploaded
+                TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.get(d);
+                return caregivers != null && caregivers.containsKey(caregiver)
+                        || appointments.existsForCaregiver(d, caregiver);
+            }
+        }
+
+        @Override
+        public SortedSet<String> getCaregivers(Date d) {
+            synchronized (MemoryStorage.this) {
+                TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.get(d);
+                return caregivers == null ? new TreeSet<>() : new TreeSet<>(caregivers.keySet());
+            }
+        }
+
+        @Override
+        public List<Slot> getSlots(Date d) {
+            synchronized (MemoryStorage.this) {
+                List<Slot> slots = new ArrayList<>();
+                TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.get(d);
+                if (caregivers != null) {
+                    for (Map.Entry<String, TreeMap<Integer, Integer>> caregiver : caregivers.entrySet()) {
+                        for (Map.Entry<Integer, Integer> slot : caregiver.getValue().entrySet()) {
+                            slots.add(new Slot(caregiver.getKey(), slot.getKey(), slot.getValue()));
+                        }
+                    }
+                }
+                return slots;
+            }
+        }
+
+        @Override
+        public List<DayCapacity> getCapacity(Date from, Date to) {
+            synchronized (MemoryStorage.this) {
+                TreeSet<Date> dates = new TreeSet<>(available.subMap(from, true, to, true).keySet());
+                dates.addAll(booked.subMap(from, true, to, true).keySet());
+                List<DayCapacity> days = new ArrayList<>(dates.size());
+                for (Date d : dates) {
+                    Map<String, TreeMap<Integer, Integer>> slots = available.getOrDefault(d, new TreeMap<>());
+                    Map<String, Integer> loads = booked.getOrDefault(d, new HashMap<>());
+                    Set<String> caregivers = new HashSet<>(slots.keySet());
+                    caregivers.addAll(loads.keySet());
+                    long free = 0;
+                    for (TreeMap<Integer, Integer> places : slots.values()) {
+                        for (int p : places.values()) {
+                            free += p;
+                        }
+                    }
+                    long appointments = 0;
+                    for (int load : loads.values()) {
+                        appointments += load;
+                    }
+                    days.add(new DayCapacity(d, caregivers.size(), appointments, free));
+                }
+                return days;
+            }
+        }
+
+        @Override
+        public void add(Date d, String caregiver) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (exists(d, caregiver)) {
+                    throw new SQLException(caregiver + " is already available on " + d);
+                }
+                commit("available", caregiver, d.toString());
+            }
+        }
+
+        @Override
+        public List<Date> addAll(String caregiver, Collection<Date> dates) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                List<Date> added = new ArrayList<>();
+                List<String> record = new ArrayList<>(2 + dates.size());
+                record.add("available");
+                record.add(caregiver);
+                TreeSet<Date> seen = new TreeSet<>();
+                for (Date d : dates) {
+                    if (seen.add(d) && !exists(d, caregiver)) {
+                        added.add(d);
+                        record.add(d.toString());
+                    }
+                }
+                if (!added.isEmpty()) {
+                    commit(record.toArray(new String[0]));
+                }
+                return added;
+            }
+        }
+
+        @Override
+        public boolean addSlots(Date d, String caregiver, Collection<Integer> starts, int capacity)
+                throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (exists(d, caregiver)) {
+                    return false;
+                }
+                List<String> record = new ArrayList<>(4 + starts.size());
+                record.add("slots");
+                record.add(caregiver);
+                record.add(d.toString());
+                record.add(String.valueOf(capacity));
+                for (int start : starts) {
+                    record.add(String.valueOf(start));
+                }
+                commit(record.toArray(new String[0]));
+                return true;
+            }
+        }
+    }
+
+    private class MemoryAppointmentDao implements AppointmentDao {
+
+        @Override
+        public long nextAppointmentID() {
+            synchronized (MemoryStorage.this) {
+                // not logged by itself, the booking that uses the id records it
+                return ++lastAppointmentID;
+            }
+        }
+
+        @Override
+        public Reservation reserve(long appointmentID, String patient, Date d, Integer slot, String vaccine)
+                throws SQLException {
+            synchronized (MemoryStorage.this) {
+                if (!onDate(appointmentsByPatient, patient, d).isEmpty()) {
+                    return Reservation.failed(Status.ALREADY_BOOKED);
+                }
+                // the places the patient can have: the given slot, or else each caregiver's earliest free slot
+                // (every free slot for random), in caregiver name order
+                List<Slot> candidates = new ArrayList<>();
+                TreeMap<String, TreeMap<Integer, Integer>> caregivers = available.getOrDefault(d, new TreeMap<>());
+                for (Map.Entry<String, TreeMap<Integer, Integer>> entry : caregivers.entrySet()) {
+                    TreeMap<Integer, Integer> slots = entry.getValue();
+                    if (slot != null) {
+                        if (slots.containsKey(slot)) {
+                            candidates.add(new Slot(entry.getKey(), slot, slots.get(slot)));
+                        }
+                    } else if (selection == CaregiverSelection.RANDOM) {
+                        slots.forEach((start, places) -> candidates.add(new Slot(entry.getKey(), start, places)));
+                    } else {
+                        candidates.add(new Slot(entry.getKey(), slots.firstKey(), slots.firstEntry().getValue()));
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    return Reservation.failed(Status.NO_CAREGIVER);
+                }
+                Slot chosen = select(d, candidates);
+                String caregiver = chosen.getCaregiver();
+                int claimed = chosen.getStart();
+                Integer left = doses.get(vaccine);
+                if (left == null) {
+                    return Reservation.failed(Status.NO_SUCH_VACCINE);
+                }
+                if (left <= 0) {
+                    return Reservation.failed(Status.OUT_OF_DOSES);
+                }
+                commit("book", String.valueOf(appointmentID), d.toString(), patient, caregiver, vaccine,
+                        String.valueOf(claimed));
+                if (selection == CaregiverSelection.ROUND_ROBIN) {
+                    lastCaregivers.put(d, caregiver);
+                }
+                return Reservation.reserved(appointmentID, caregiver, claimed);
+            }
+        }
+
+        // the same choices as the ORDER BY of the SQL storage's claim
+        private Slot select(Date d, List<Slot> candidates) {
+            switch (selection) {
+                case LEAST_BOOKED: {
+                    Map<String, Integer> loads = booked.getOrDefault(d, new HashMap<>());
+                    // min keeps the first of equals, so ties go by name
+                    return Collections.min(candidates, Comparator
+                            .comparingInt((Slot candidate) -> loads.getOrDefault(candidate.getCaregiver(), 0))
+                            .thenComparingInt(Slot::getStart));
+                }
+                case ROUND_ROBIN: {
+                    String last = lastCaregivers.getOrDefault(d, "");
+                    for (Slot candidate : candidates) {
+                        if (candidate.getCaregiver().compareTo(last) > 0) {
+                            return candidate;
+                        }
+                    }
+                    return candidates.get(0);
+                }
+                case RANDOM:
+                    return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+                default:
+                    return Collections.min(candidates, Comparator.comparingInt(Slot::getStart));
+            }
+        }
+
+        @Override
+        public Appointment get(long appointmentID) {
+            synchronized (MemoryStorage.this) {
+                return appointmentsByID.get(appointmentID);
+            }
+        }
+
+        @Override
+        public boolean existsForCaregiver(Date d, String caregiver) {
+            synchronized (MemoryStorage.this) {
+                return !onDate(appointmentsByCaregiver, caregiver, d).isEmpty();
+            }
+        }
+
+        @Override
+        public void find(AppointmentQuery query, Consumer<Appointment> consumer) {
+            List<Appointment> page = new ArrayList<>();
+            synchronized (MemoryStorage.this) {
+                TreeSet<Appointment> all = (query.getRole() == AppointmentQuery.Role.CAREGIVER
+                        ? appointmentsByCaregiver : appointmentsByPatient).get(query.getUsername());
+                if (all == null) {
+                    return;
+                }
+                NavigableSet<Appointment> selected = all;
+                if (query.getFrom() != null) {
+                    selected = selected.tailSet(probe(query.getFrom(), Long.MIN_VALUE), true);
+                }
+                if (query.getTo() != null) {
+                    selected = selected.headSet(probe(query.getTo(), Long.MAX_VALUE), true);
+                }
+                if (query.getAfterTime() != null) {
+                    selected = selected.tailSet(probe(query.getAfterTime(), query.getAfterAppointmentID()), false);
+                }
+                for (Appointment appointment : selected) {
+                    if (page.size() == query.getLimit()) {
+                        break;
+                    }
+                    page.add(appointment);
+                }
+            }
+            // handed over outside the lock, the consumer may be writing to a slow client
+            page.forEach(consumer);
+        }
+
+        @Override
+        public void findAll(Date from, Date to, Consumer<Appointment> consumer) {
+            long after = Long.MIN_VALUE;
+            List<Appointment> chunk = new ArrayList<>(EXPORT_CHUNK_SIZE);
+            while (true) {
+                // copied a chunk at a time and handed over outside the lock, so an export neither holds the lock
+                // while it writes nor copies the whole table
+                synchronized (MemoryStorage.this) {
+                    for (Appointment appointment : appointmentsByID.tailMap(after, false).values()) {
+                        if (chunk.size() == EXPORT_CHUNK_SIZE) {
+                            break;
+                        }
+                        after = appointment.getAppointmentID();
+                        if (!appointment.getTime().before(from) && !appointment.getTime().after(to)) {
+                            chunk.add(appointment);
+                        }
+                    }
+                }
+                if (chunk.isEmpty()) {
+                    return;
+                }
+                chunk.forEach(consumer);
+                chunk.clear();
+            }
+        }
+
+        @Override
+        public Appointment cancel(long appointmentID, AppointmentQuery.Role role, String username)
+                throws SQLException {
+            synchronized (MemoryStorage.this) {
+                Appointment appointment = appointmentsByID.get(appointmentID);
+                if (appointment == null || !username.equals(role == AppointmentQuery.Role.CAREGIVER
+                        ? appointment.getCaregiverID() : appointment.getPatientID())) {
+                    return null;
+                }
+                commit("cancel", String.valueOf(appointmentID));
+                return appointment;
+            }
+        }
+
+        @Override
+        public List<Appointment> cancelAll(AppointmentQuery query) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                // the same selection as find, without the paging
+                List<Appointment> cancelled = new ArrayList<>();
+                find(new AppointmentQuery.AppointmentQueryBuilder(query.getRole(), query.getUsername())
+                        .from(query.getFrom()).to(query.getTo()).build(), cancelled::add);
+                if (!cancelled.isEmpty()) {
+                    List<String> record = new ArrayList<>(1 + cancelled.size());
+                    record.add("cancel");
+                    for (Appointment appointment : cancelled) {
+                        record.add(String.valueOf(appointment.getAppointmentID()));
+                    }
+                    commit(record.toArray(new String[0]));
+                }
+                return cancelled;
+            }
+        }
+
+        private SortedSet<Appointment> onDate(Map<String, TreeSet<Appointment>> byUser, String username, Date d) {
+            TreeSet<Appointment> all = byUser.get(username);
+            if (all == null) {
+                return new TreeSet<>(TIME_ORDER);
+            }
+            return all.subSet(probe(d, Long.MIN_VALUE), true, probe(d, Long.MAX_VALUE), true);
+        }
+
+        // a stand-in that sorts at the given position of TIME_ORDER
+        private Appointment probe(Date d, long appointmentID) {
+            return new Appointment(appointmentID, d, null, null, null, Slot.WHOLE_DAY);
+        }
+    }
+
+    private class MemoryWaitlistDao implements WaitlistDao {
+
+        @Override
+        public WaitlistEntry add(String patient, Date d, String vaccine) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                for (WaitlistEntry entry : waitlistByPatient.getOrDefault(patient, new TreeMap<>()).values()) {
+                    if (entry.getStatus() == WaitlistEntry.Status.WAITING && entry.getTime().equals(d)) {
+                        return null;
+                    }
+                }
+                long waitlistID = lastWaitlistID + 1;
+                commit("waitlist", String.valueOf(waitlistID), d.toString(), patient, vaccine);
+                return waitlist.get(waitlistID);
+            }
+        }
+
+        @Override
+        public List<WaitlistEntry> waiting(long afterID, int limit) {
+            synchronized (MemoryStorage.this) {
+                List<WaitlistEntry> entries = new ArrayList<>();
+                for (WaitlistEntry entry : waitlist.tailMap(afterID, false).values()) {
+                    if (entries.size() == limit) {
+                        break;
+                    }
+                    if (entry.getStatus() == WaitlistEntry.Status.WAITING) {
+                        entries.add(entry);
+                    }
+                }
+                return entries;
+            }
+        }
+
+        @Override
+        public boolean resolve(long waitlistID, WaitlistEntry.Status status, long appointmentID)
+                throws SQLException {
+            synchronized (MemoryStorage.this) {
+                WaitlistEntry entry = waitlist.get(waitlistID);
+                if (entry == null || entry.getStatus() != WaitlistEntry.Status.WAITING) {
+                    return false;
+                }
+                commit("waitlist_resolve", String.valueOf(waitlistID), status.name(), String.valueOf(appointmentID));
+                return true;
+            }
+        }
+
+        @Override
+        public List<WaitlistEntry> forPatient(String patient) {
+            synchronized (MemoryStorage.this) {
+                return new ArrayList<>(waitlistByPatient.getOrDefault(patient, new TreeMap<>()).values());
+            }
+        }
+
+        @Override
+        public void acknowledge(String patient, long upToID) throws SQLException {
+            synchronized (MemoryStorage.this) {
+                commit("waitlist_ack", patient, String.valueOf(upToID));
+            }
+        }
+    }
+}
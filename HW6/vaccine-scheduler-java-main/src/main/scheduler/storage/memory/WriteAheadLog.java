@@ -0,0 +1,217 @@
+package scheduler.storage.memory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An append-only file of records, one per line, each a tab separated list of fields.
+ *
+ * A record is only replayed if its line was written completely, so a crash in the middle of an append loses that
+ * record and nothing else: the incomplete line is cut off before the next append. An append that fails is cut off
+ * the same way, and if that fails too the log refuses further appends until it is rewritten, so a later record is
+ * never joined to a partial one. With sync set, every append is forced to disk before it returns.
+ *
+ * A log belongs to one process: lock takes an exclusive lock on a .lock file next to it, held until close. The lock
+ * is not on the log itself because rewrite replaces that file.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+    private final Path file;
+    private final boolean sync;
+    private FileChannel channel = null;
+    private FileChannel lockChannel = null;
+    private FileLock lock = null;
+    // the error of an append that could not be cut off again; set, the file may end in a partial record
+    private IOException failed = null;
+
+    WriteAheadLog(Path file, boolean sync) {
+        this.file = file;
+        this.sync = sync;
+    }
+
+    // to be called before anything else; throws if another process, or another log of this one, holds the file
+    void lock() throws IOException {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException(file + " is in use by another process");
+        }
+    }
+
+    // passes every complete record in the file to consumer, oldest first
+    void replay(Consumer<String[]> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    consumer.accept(decode(line));
+                    line.setLength(0);
+                } else {
+                    line.append((char) c);
+                }
+            }
+            if (line.length() > 0) {
+                System.out.println("Ignoring incomplete last record in " + file);
+            }
+        }
+    }
+
+    // atomically replaces the file with the given records and keeps appending to the new file
+    void rewrite(List<String[]> records) throws IOException {
+        closeChannel();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String[] record : records) {
+                writer.write(encode(record));
+            }
+        }
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            tempChannel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        failed = null;
+    }
+
+    // either the whole record is in the file when this returns, or none of it
+    void append(String... record) throws IOException {
+        if (failed != null) {
+            throw new IOException("Not appending to " + file + " after a failed append", failed);
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channel.truncate(completeLength());
+        }
+        long end = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(encode(record).getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(end);
+            } catch (IOException truncateFailed) {
+                e.addSuppressed(truncateFailed);
+                failed = e;
+            }
+            throw e;
+        }
+    }
+
+    // the length of the file up to the end of its last complete record, read backwards from the end
+    private long completeLength() throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - block.capacity());
+            block.clear().limit((int) (end - start));
+            while (block.hasRemaining()) {
+                if (channel.read(block, start + block.position()) < 0) {
+                    throw new IOException(file + " shrank while being read");
+                }
+            }
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeChannel();
+        } finally {
+            if (lockChannel != null) {
+                // closing the channel releases the lock
+                lockChannel.close();
+                lockChannel = null;
+                lock = null;
+            }
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // tabs, line breaks and backslashes inside a field are escaped with a backslash
+    private static String encode(String[] record) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < record.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            String field = record[i];
+            for (int j = 0; j < field.length(); j++) {
+                char c = field.charAt(j);
+                if (c == '\\') {
+                    line.append("\\\\");
+                } else if (c == '\t') {
+                    line.append("\\t");
+                } else if (c == '\n') {
+                    line.append("\\n");
+                } else if (c == '\r') {
+                    line.append("\\r");
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+        return line.append('\n').toString();
+    }
+
+    private static String[] decode(CharSequence line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
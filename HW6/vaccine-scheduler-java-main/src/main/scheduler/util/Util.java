@@ -1,18 +1,30 @@
 package scheduler.util;
 
+import scheduler.metrics.Metrics;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Util {
 
     // constants for handling password
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    // SecretKeyFactory.getInstance goes through the provider lookup every time and the factories are not
+    // thread safe, so each thread keeps its own instance per algorithm
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> KEY_FACTORIES =
+            ThreadLocal.withInitial(HashMap::new);
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
@@ -23,17 +35,30 @@ public class Util {
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
+        return generateHash(password, salt, HASH_ALGORITHM, HASH_STRENGTH, KEY_LENGTH);
+    }
+
+    // keyLength is in bits
+    public static byte[] generateHash(String password, byte[] salt, String algorithm, int iterations,
+                                      int keyLength) {
         // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
+        long start = System.nanoTime();
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            Map<String, SecretKeyFactory> factories = KEY_FACTORIES.get();
+            SecretKeyFactory factory = factories.get(algorithm);
+            if (factory == null) {
+                factory = SecretKeyFactory.getInstance(algorithm);
+                factories.put(algorithm, factory);
+            }
             hash = factory.generateSecret(spec).getEncoded();
         } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+            throw new IllegalStateException(ex);
+        } finally {
+            Metrics.record("auth.hash", System.nanoTime() - start);
         }
         return hash;
     }
@@ -48,4 +73,83 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // reads an optional setting from the environment
+    public static String stringEnv(String name, String defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    // reads an optional integer setting from the environment
+    public static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // splits a command line at runs of whitespace, ignoring leading and trailing whitespace; a blank line gives
+    // an empty array. Counts the tokens first so that the result is the only array allocated.
+    public static String[] tokenize(String line) {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            boolean space = Character.isWhitespace(line.charAt(i));
+            if (!space && !inToken) {
+                count++;
+            }
+            inToken = !space;
+        }
+        String[] tokens = new String[count];
+        int start = -1;
+        int next = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            boolean space = i == line.length() || Character.isWhitespace(line.charAt(i));
+            if (space && start >= 0) {
+                tokens[next++] = line.substring(start, i);
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    // splits one CSV line, honouring double quoted fields with "" as an escaped quote
+    public static String[] splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
 }